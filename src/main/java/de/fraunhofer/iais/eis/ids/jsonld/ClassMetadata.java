@@ -0,0 +1,366 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import de.fraunhofer.iais.eis.util.RdfResource;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.validation.constraints.NotNull;
+import javax.xml.datatype.Duration;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-class reflection metadata of the {@link Parser}. Constructor, setters and id field are resolved once per class
+ * into MethodHandles, together with the element classes, predicates and nullability of all properties.
+ * Parsing an object then involves no reflective lookups.
+ */
+final class ClassMetadata {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassMetadata.class);
+
+    private static final Map<Class<?>, ClassMetadata> cache = new ConcurrentHashMap<>();
+
+    private static final NamespaceRegistry.Cache<Class<?>, Map<String, Object>> enumConstantsCache = new NamespaceRegistry.Cache<>();
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /**
+     * This list contains all primitive Java types
+     */
+    private static final Map<String, Class<?>> builtInMap = new HashMap<>();
+    static {
+        builtInMap.put("int", Integer.TYPE);
+        builtInMap.put("long", Long.TYPE);
+        builtInMap.put("double", Double.TYPE);
+        builtInMap.put("float", Float.TYPE);
+        builtInMap.put("bool", Boolean.TYPE);
+        builtInMap.put("char", Character.TYPE);
+        builtInMap.put("byte", Byte.TYPE);
+        builtInMap.put("void", Void.TYPE);
+        builtInMap.put("short", Short.TYPE);
+    }
+
+    /**
+     * Value of the JsonTypeName annotation, or null if the class has none
+     */
+    final String typeName;
+
+    /**
+     * Properties which can be set, sorted by their key
+     */
+    final List<PropertyMetadata> properties;
+
+    private final Map<String, PropertyMetadata> propertiesByKey;
+
+    /**
+     * Constructor of type ()Object
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * Setter of the id field of type (Object,Object)void
+     */
+    private final MethodHandle idSetter;
+
+    /**
+     * setProperty(String, Object) and getProperties() of type (Object,Object,Object)void and (Object)Object.
+     * Null if the class does not support external properties
+     */
+    private final MethodHandle setProperty;
+    private final MethodHandle getProperties;
+
+    private ClassMetadata(Class<?> type) throws ReflectiveOperationException, IOException {
+        JsonTypeName typeNameAnnotation = type.getAnnotation(JsonTypeName.class);
+        typeName = typeNameAnnotation == null ? null : typeNameAnnotation.value();
+
+        //Get constructor (which is package private for our classes) and make it accessible
+        Constructor<?> declaredConstructor = type.getDeclaredConstructor();
+        declaredConstructor.setAccessible(true);
+        constructor = lookup.unreflectConstructor(declaredConstructor).asType(MethodType.methodType(Object.class));
+
+        //There is no "setId" method in our CodeGen generated classes, so we use the field
+        Field idField = type.getDeclaredField("id");
+        idField.setAccessible(true);
+        idSetter = lookup.unreflectSetter(idField).asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+        MethodHandle setPropertyHandle = null;
+        MethodHandle getPropertiesHandle = null;
+        Map<String, Method> methodMap = new TreeMap<>();
+        Map<String, Field> fields = new HashMap<>();
+        for (Field field : type.getDeclaredFields()) {
+            fields.put(field.getName(), field);
+        }
+
+        for (Method method : type.getDeclaredMethods()) {
+            String name = method.getName();
+            if (name.equals("setProperty") && Arrays.equals(method.getParameterTypes(), new Class<?>[]{String.class, Object.class})) {
+                setPropertyHandle = lookup.unreflect(method).asType(MethodType.methodType(void.class, Object.class, Object.class, Object.class));
+            } else if (name.equals("getProperties") && method.getParameterCount() == 0) {
+                getPropertiesHandle = lookup.unreflect(method).asType(MethodType.methodType(Object.class, Object.class));
+            }
+
+            //Get all relevant methods (setters, but not for label, comment or external properties)
+            if (name.startsWith("set") && !name.equals("setProperty") && !name.equals("setComment") && !name.equals("setLabel") && !name.equals("setId")) {
+                //Remove "set" part and turn first character to lower case
+                char[] c = name.substring(3).toCharArray();
+                c[0] = Character.toLowerCase(c[0]);
+                methodMap.put(new String(c), method);
+            }
+        }
+        //Both are needed to add external properties
+        if (setPropertyHandle == null || getPropertiesHandle == null) {
+            setPropertyHandle = null;
+            getPropertiesHandle = null;
+        }
+        setProperty = setPropertyHandle;
+        getProperties = getPropertiesHandle;
+
+        List<PropertyMetadata> propertyList = new ArrayList<>();
+        Map<String, PropertyMetadata> byKey = new HashMap<>();
+        for (Map.Entry<String, Method> entry : methodMap.entrySet()) {
+            PropertyMetadata property = createProperty(entry.getKey(), entry.getValue(), findField(fields, entry.getKey()));
+            propertyList.add(property);
+            byKey.put(property.key, property);
+        }
+        properties = Collections.unmodifiableList(propertyList);
+        propertiesByKey = byKey;
+    }
+
+    /**
+     * Retrieves the metadata of a class, creating it on first use
+     * @param type An instantiable class
+     * @return cached metadata of this class
+     * @throws ReflectiveOperationException thrown, if the constructor, the id field or the field of a setter cannot be found or accessed
+     * @throws IOException thrown, if the element type of a collection valued property cannot be resolved
+     */
+    static ClassMetadata forClass(Class<?> type) throws ReflectiveOperationException, IOException {
+        ClassMetadata metadata = cache.get(type);
+        if (metadata == null) {
+            metadata = new ClassMetadata(type);
+            ClassMetadata existing = cache.putIfAbsent(type, metadata);
+            if (existing != null) {
+                metadata = existing;
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Retrieves the constants of an enum, keyed by their string representation (i.e. their URI). The constants are also
+     * keyed by the prefixed forms of their URI (e.g. "idsc:EN") for all namespaces of the JSON-LD context, and by their JsonProperty name
+     * @param enumClass An enum
+     * @return cached, unmodifiable map of the constants
+     */
+    static Map<String, Object> enumConstants(Class<?> enumClass) {
+        return enumConstantsCache.get(enumClass, (c, namespaces) -> {
+            Object[] values = c.getEnumConstants();
+            Map<String, Object> constants = new HashMap<>();
+            for (Object constant : values) {
+                constants.putIfAbsent(constant.toString(), constant);
+            }
+            //Alternative forms are added afterwards, so that they never shadow the URI of another constant
+            for (Object constant : values) {
+                String uri = constant.toString();
+                for (Map.Entry<String, String> namespace : namespaces.contextItems().entrySet()) {
+                    String prefix = namespace.getKey().endsWith(":") ? namespace.getKey() : namespace.getKey() + ":";
+                    if (uri.startsWith(namespace.getValue()) && uri.length() > namespace.getValue().length()) {
+                        constants.putIfAbsent(prefix + uri.substring(namespace.getValue().length()), constant);
+                    }
+                }
+                try {
+                    JsonProperty jsonProperty = c.getField(((Enum<?>) constant).name()).getAnnotation(JsonProperty.class);
+                    if (jsonProperty != null) {
+                        constants.putIfAbsent(jsonProperty.value(), constant);
+                    }
+                } catch (NoSuchFieldException ignored) {
+                    //Every enum constant is a public field
+                }
+            }
+            return Collections.unmodifiableMap(constants);
+        });
+    }
+
+    /**
+     * @param key Name of a property
+     * @return the property, or null if the class has no such property
+     */
+    PropertyMetadata property(String key) {
+        return propertiesByKey.get(key);
+    }
+
+    /**
+     * @return a new instance of the class
+     * @throws InvocationTargetException thrown, if the constructor fails
+     */
+    Object newInstance() throws InvocationTargetException {
+        try {
+            return constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    void setId(Object target, URI id) throws InvocationTargetException {
+        try {
+            idSetter.invokeExact(target, (Object) id);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * @return whether instances can hold properties which are not part of the class, see {@link #setProperty(Object, String, Object)}
+     */
+    boolean supportsExternalProperties() {
+        return setProperty != null;
+    }
+
+    void setProperty(Object target, String propertyUri, Object value) throws InvocationTargetException {
+        try {
+            setProperty.invokeExact(target, (Object) propertyUri, value);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    Object getProperties(Object target) throws InvocationTargetException {
+        try {
+            return getProperties.invokeExact(target);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    private static PropertyMetadata createProperty(String key, Method setter, Field field) throws IllegalAccessException, IOException {
+        MethodHandle handle = lookup.unreflect(setter).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        Class<?> type = setter.getParameterTypes()[0];
+
+        //Is the return type some sort of List?
+        boolean collection = Collection.class.isAssignableFrom(type);
+        Class<?> elementClass = null;
+        boolean elementBuiltIn = false;
+        boolean primitive;
+        if (collection) {
+            //ArrayLists are generics. We need to extract the name of the generic parameter as string and interpret that
+            String elementTypeName = extractTypeNameFromList(setter.getGenericParameterTypes()[0]);
+            //Do not try to call Class.forName(primitive) -- that would throw an exception
+            elementBuiltIn = builtInMap.containsKey(elementTypeName);
+            try {
+                elementClass = elementBuiltIn ? builtInMap.get(elementTypeName) : Class.forName(elementTypeName);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unable to retrieve class from generic", e);
+            }
+            primitive = elementBuiltIn || isPrimitive(elementClass);
+        } else {
+            primitive = isPrimitive(type);
+        }
+        boolean typedLiteralCollection = collection && elementClass.getName().endsWith("TypedLiteral");
+
+        //For the field, get the JsonAlias annotation (present for all classes generated by the CodeGen tool)
+        //Find the annotation value containing a colon and interpret this as "prefix:predicate"
+        String predicate = null;
+        if (field.getAnnotation(JsonAlias.class) != null) {
+            predicate = Arrays.stream(field.getAnnotation(JsonAlias.class).value()).map(ClassMetadata::ignoreSuffix).filter(annotation -> annotation.contains(":")).findFirst().orElse(null);
+        }
+        if (predicate == null) {
+            logger.warn("Failed to retrieve JsonAlias for field " + field + ". Assuming ids:" + key);
+            predicate = "ids:" + key;
+        }
+
+        return new PropertyMetadata(key, handle, type, !field.isAnnotationPresent(NotNull.class), collection, typedLiteralCollection,
+                primitive, elementClass, elementBuiltIn, predicate);
+    }
+
+    /**
+     * Finds the field corresponding to a setter
+     * @param fields Declared fields of the class, keyed by name
+     * @param key Name of the property set by the setter
+     * @return Field matching the name (possibly with leading underscore)
+     * @throws NoSuchFieldException thrown, if no such field exists
+     */
+    private static Field findField(Map<String, Field> fields, String key) throws NoSuchFieldException {
+        //E.g. for "setSomething", we search for a field with name "_something" (IDS way) and "something"
+        Field field = fields.get("_" + key);
+        if (field == null) {
+            field = fields.get(key);
+        }
+        if (field == null) {
+            field = fields.get("_" + Character.toUpperCase(key.charAt(0)) + key.substring(1));
+        }
+        if (field == null) {
+            throw new NoSuchFieldException("Failed to find field which is set by method " + key);
+        }
+        return field;
+    }
+
+    private static String ignoreSuffix(String s) {
+        if (s.endsWith("AsObject")) {
+            return s.replace("AsObject", "");
+        } else if (s.endsWith("AsUri")) {
+            return s.replace("AsUri", "");
+        }
+        return s;
+    }
+
+    private static String extractTypeNameFromList(Type t) throws IOException {
+        String typeName = t.getTypeName();
+        if (!typeName.startsWith("java.util.ArrayList<") && !typeName.startsWith("java.util.List<")) {
+            throw new IOException("Illegal argument encountered while interpreting type parameter");
+        }
+        //"<? extends XYZ>" or super instead of extends
+        if (typeName.contains("?")) {
+            //last space is where we want to cut off (right after the "extends"), as well as removing the last closing braces
+            return typeName.substring(typeName.lastIndexOf(" ") + 1, typeName.length() - 1);
+        }
+        //No extends
+        else {
+            return typeName.substring(typeName.indexOf("<") + 1, typeName.indexOf(">"));
+        }
+    }
+
+    /**
+     * Our notion of primitives, i.e. values which are represented by literals (or plain URIs) rather than by objects
+     * @param input Class to check
+     * @return whether values of this class are handled as primitives
+     * @throws IOException thrown, if the class is a collection
+     */
+    private static boolean isPrimitive(Class<?> input) throws IOException {
+        //Collections are not simple
+        if (Collection.class.isAssignableFrom(input)) {
+            throw new IOException("Encountered collection in isPrimitive. Use isArrayListTypePrimitive instead");
+        }
+
+        //check for: plain/typed literal, XMLGregorianCalendar, byte[], RdfResource
+        //covers int, long, short, float, double, boolean, byte
+        if (input.isPrimitive()) return true;
+
+        return (URI.class.isAssignableFrom(input) ||
+                String.class.isAssignableFrom(input) ||
+                XMLGregorianCalendar.class.isAssignableFrom(input) ||
+                TypedLiteral.class.isAssignableFrom(input) ||
+                BigInteger.class.isAssignableFrom(input) ||
+                BigDecimal.class.isAssignableFrom(input) ||
+                byte[].class.isAssignableFrom(input) ||
+                Duration.class.isAssignableFrom(input) ||
+                RdfResource.class.isAssignableFrom(input)) ||
+                Boolean.class.isAssignableFrom(input) ||
+                Long.class.isAssignableFrom(input);
+    }
+}
@@ -0,0 +1,18 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+/**
+ * Strategies for collecting the prefixes which are required in the @context of a serialized object graph
+ */
+public enum ContextCollectionMode {
+
+    /**
+     * The object graph is traversed reflectively before anything is written. This is the default
+     */
+    PRE_PASS,
+
+    /**
+     * The prefixes are collected while Jackson writes the object graph, so that the graph is visited only once.
+     * The body of the top level object is buffered in the meantime, such that the @context can still be written first
+     */
+    SINGLE_PASS
+}
@@ -0,0 +1,183 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Per-class plan for the computation of the @context of a serialized object graph.
+ * All reflection (annotations, enum constants, fields) happens once per class when the plan is created.
+ * Computing the context of an object is then a walk over the cached plans of the objects in the graph.
+ */
+final class ContextPlan {
+
+    private static final NamespaceRegistry.Cache<Class<?>, ContextPlan> plans = new NamespaceRegistry.Cache<>();
+
+    private static final ContextPlan SKIPPED = new ContextPlan();
+
+    /**
+     * Prefixes which are required by every instance of the class, e.g. due to the JsonTypeName or JsonProperty annotations
+     */
+    final Map<String, String> staticPrefixes;
+
+    /**
+     * The "type" field of RdfResource and TypedLiteral, which can reference any namespace. Null for all other classes
+     */
+    final Field typeField;
+
+    /**
+     * Collection-valued fields, whose elements need to be visited
+     */
+    final Field[] collectionFields;
+
+    /**
+     * Fields holding (possibly) annotated objects, which need to be visited
+     */
+    final Field[] objectFields;
+
+    /**
+     * Whether instances of this class are ignored entirely
+     */
+    final boolean skipped;
+
+    private ContextPlan() {
+        staticPrefixes = Collections.emptyMap();
+        typeField = null;
+        collectionFields = new Field[0];
+        objectFields = new Field[0];
+        skipped = true;
+    }
+
+    private ContextPlan(Class<?> type, Map<String, String> contextItems) {
+        skipped = false;
+        Map<String, String> prefixes = new HashMap<>();
+
+        //Check if RdfResource or TypedLiteral is used. They contain a field called "type" which can reference to any namespace
+        //Therefore it is vital to also check the value of the type field for prefixes that need to be included in the context
+        Field rdfTypeField = null;
+        if (type.getSimpleName().equals("RdfResource") || type.getSimpleName().equals("TypedLiteral")) {
+            try {
+                rdfTypeField = type.getDeclaredField("type");
+            } catch (NoSuchFieldException e) {
+                try {
+                    rdfTypeField = type.getSuperclass().getDeclaredField("type");
+                } catch (NoSuchFieldException ignored) {
+                }
+            }
+            rdfTypeField = makeAccessible(rdfTypeField);
+        }
+        typeField = rdfTypeField;
+
+        JsonTypeName typeNameAnnotation = type.getAnnotation(JsonTypeName.class);
+        if (typeNameAnnotation != null) {
+            contextItems.forEach((p, u) -> {
+                if (typeNameAnnotation.value().contains(p)) {
+                    prefixes.put(p, u);
+                }
+            });
+            //TODO: Dirty hard coded stuff...
+            if (typeNameAnnotation.value().toLowerCase().contains("catalog")) {
+                prefixes.put("idsc", "https://w3id.org/idsa/code/");
+            }
+        }
+
+        // run though all properties and check annotations. These annotations should contain the prefixes
+        for (Method m : type.getMethods()) {
+            JsonProperty propertyAnnotation = m.getAnnotation(JsonProperty.class);
+            if (propertyAnnotation != null) {
+                contextItems.forEach((p, u) -> {
+                    if (propertyAnnotation.value().contains(p)) {
+                        prefixes.put(p, u);
+                    }
+                });
+            }
+            if (m.getReturnType().isEnum()) {
+                //Is there any enum constant starting with the IDSC namespace?
+                if (Arrays.stream(m.getReturnType().getEnumConstants()).anyMatch(constant -> constant.toString().startsWith(contextItems.get("idsc")))) {
+                    prefixes.put("idsc", contextItems.get("idsc"));
+                }
+            }
+        }
+        staticPrefixes = Collections.unmodifiableMap(prefixes);
+
+        List<Field> collections = new ArrayList<>();
+        List<Field> objects = new ArrayList<>();
+        for (Field f : getAllFields(new HashSet<>(), type)) {
+            if (Collection.class.isAssignableFrom(f.getType())) {
+                if (f.getType().getName().startsWith("java.") && !f.getType().getName().startsWith("java.util")) continue;
+                Field accessibleField = makeAccessible(f);
+                if (accessibleField != null) {
+                    collections.add(accessibleField);
+                }
+            }
+
+            if (f.getType().isPrimitive() || f.getType().isEnum() || f.getType().isArray()
+                    || f.getType().getName().contains("java.")
+                    || f.getType().getName().contains("javax.")) continue;
+
+            Field accessibleField = makeAccessible(f);
+            if (accessibleField != null) {
+                objects.add(accessibleField);
+            }
+        }
+        collectionFields = collections.toArray(new Field[0]);
+        objectFields = objects.toArray(new Field[0]);
+    }
+
+    /**
+     * Retrieves the plan for a class, creating it on first use
+     * @param type The class of an object to be serialized
+     * @return cached plan of this class for the current namespaces
+     */
+    static ContextPlan forClass(Class<?> type) {
+        return plans.get(type, ContextPlan::createPlan);
+    }
+
+    private static ContextPlan createPlan(Class<?> type, NamespaceRegistry namespaces) {
+        // XMLGregorianCalendarImpl causes infinite recursion
+        if (type.getName().equals("com.sun.org.apache.xerces.internal.jaxp.datatype.XMLGregorianCalendarImpl")
+                || type.getName().equals("org.apache.jena.ext.xerces.jaxp.datatype.XMLGregorianCalendarImpl")
+                || type == BigInteger.class) {
+            return SKIPPED;
+        }
+        return new ContextPlan(type, namespaces.contextItems());
+    }
+
+    /**
+     * Makes a field accessible once, so that it can be read without toggling the accessibility on each access
+     * @param field The field to be made accessible (may be null)
+     * @return the accessible field, or null if the field is null or cannot be made accessible
+     */
+    private static Field makeAccessible(Field field) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            field.setAccessible(true);
+            return field;
+        } catch (RuntimeException e) {
+            //Fields of classes in non-open modules cannot be made accessible. They do not carry any prefixes anyway
+            return null;
+        }
+    }
+
+    /**
+     * This function retrieves a set of all available fields of a class, including inherited fields
+     * @param fields Set to which discovered fields will be added. An empty HashSet should do the trick
+     * @param type The class for which fields should be discovered
+     * @return set of all available fields
+     */
+    private static Set<Field> getAllFields(Set<Field> fields, Class<?> type) {
+        fields.addAll(Arrays.asList(type.getDeclaredFields()));
+
+        if (type.getSuperclass() != null) {
+            getAllFields(fields, type.getSuperclass());
+        }
+
+        return fields;
+    }
+}
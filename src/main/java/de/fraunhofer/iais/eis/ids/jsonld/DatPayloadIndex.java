@@ -0,0 +1,129 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-class index which tells whether an object graph may contain a DatPayload, whose JWT claims need to be added to
+ * the @context. The index is computed once per class from the declared field types (and their @JsonSubTypes), so that
+ * subtrees which cannot contain a DatPayload are never read. The remaining fields are read via cached MethodHandles.
+ */
+final class DatPayloadIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatPayloadIndex.class);
+
+    private static final Map<Class<?>, DatPayloadIndex> indices = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, Boolean> reachability = new ConcurrentHashMap<>();
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Whether the class itself is a DatPayload
+     */
+    final boolean isDatPayload;
+
+    /**
+     * Getters (of type (Object)Object) for the declared fields whose values may contain a DatPayload
+     */
+    final MethodHandle[] candidateGetters;
+
+    private DatPayloadIndex(Class<?> type) {
+        isDatPayload = isDatPayload(type);
+        List<MethodHandle> getters = new ArrayList<>();
+        if (!isDatPayload) {
+            for (Field f : type.getDeclaredFields()) {
+                if (!isTraversed(f) || !mayContainDatPayload(f.getType())) continue;
+                MethodHandle getter = createGetter(f);
+                if (getter != null) {
+                    getters.add(getter);
+                }
+            }
+        }
+        candidateGetters = getters.toArray(new MethodHandle[0]);
+    }
+
+    /**
+     * Retrieves the index for a class, creating it on first use
+     * @param type The runtime class of an object to be serialized
+     * @return cached index of this class
+     */
+    static DatPayloadIndex forClass(Class<?> type) {
+        return indices.computeIfAbsent(type, DatPayloadIndex::new);
+    }
+
+    /**
+     * Checks whether a value of the given (static) type may transitively contain a DatPayload.
+     * Subtypes are only known via @JsonSubTypes. Interfaces and abstract classes without this annotation are therefore
+     * assumed to possibly contain one
+     * @param type The declared type of a field
+     * @return false, if no object graph starting at a value of this type can contain a DatPayload
+     */
+    static boolean mayContainDatPayload(Class<?> type) {
+        return reachability.computeIfAbsent(type, DatPayloadIndex::reachesDatPayload);
+    }
+
+    private static boolean reachesDatPayload(Class<?> root) {
+        Set<Class<?>> visited = new HashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Class<?> type = queue.poll();
+            if (!visited.add(type)) continue;
+            if (isDatPayload(type)) return true;
+
+            JsonSubTypes subTypes = type.getAnnotation(JsonSubTypes.class);
+            if (subTypes != null) {
+                for (JsonSubTypes.Type subType : subTypes.value()) {
+                    queue.add(subType.value());
+                }
+            } else if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+                //Implementations are unknown
+                return true;
+            }
+            if (!type.isInterface()) {
+                for (Field f : type.getDeclaredFields()) {
+                    if (isTraversed(f)) {
+                        queue.add(f.getType());
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDatPayload(Class<?> type) {
+        return type.getSimpleName().contains("DatPayload");
+    }
+
+    /**
+     * Fields of JDK types, primitives and enums never contain a DatPayload
+     */
+    private static boolean isTraversed(Field f) {
+        return !(f.isSynthetic() || f.getType().isPrimitive() || f.getType().isEnum()
+                || f.getType().toString().contains("java.")
+                || f.getType().toString().contains("javax."));
+    }
+
+    private static MethodHandle createGetter(Field f) {
+        try {
+            MethodHandle getter = MethodHandles.privateLookupIn(f.getDeclaringClass(), MethodHandles.lookup()).unreflectGetter(f);
+            if (Modifier.isStatic(f.getModifiers())) {
+                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+            }
+            return getter.asType(GETTER_TYPE);
+        } catch (IllegalAccessException | RuntimeException e) {
+            logger.warn("Field " + f + " cannot be accessed and is not checked for a DatPayload");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.*;
+import org.apache.jena.vocabulary.RDF;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link ParserEngine#GRAPH}, which reads the statements directly from the model.
+ * The solutions are the ones the queries of {@link SparqlPropertyReader} yield on the same model,
+ * so that the parser behaves identically with both engines
+ */
+final class GraphPropertyReader implements PropertyReader {
+
+    private final Model model;
+
+    //One snapshot for the entire message, so that all names are expanded consistently
+    private final NamespaceRegistry namespaces = NamespaceRegistry.current();
+
+    GraphPropertyReader(Model model) {
+        this.model = model;
+    }
+
+    @Override
+    public List<RDFNode> types(String objectUri) {
+        return model.listObjectsOfProperty(model.createResource(objectUri), RDF.type).toList();
+    }
+
+    @Override
+    public List<QuerySolution> selectProperties(String objectUri, Class<?> targetClass, String typeName, Collection<PropertyMetadata> properties) {
+        Resource subject = model.createResource(objectUri);
+        if (!model.contains(subject, RDF.type, model.createResource(expand(typeName)))) {
+            return Collections.emptyList();
+        }
+
+        Map<String, RDFNode> bindings = new LinkedHashMap<>();
+        String ambiguousKey = null;
+        RDFNode alternativeValue = null;
+        for (PropertyMetadata property : properties) {
+            Property predicate = model.createProperty(expand(property.predicate));
+            if (property.collection) {
+                //Corresponds to the FILTER EXISTS of the query. The values are retrieved by selectMultiValuedProperties
+                if (!property.nullable && !model.contains(subject, predicate, (RDFNode) null)) {
+                    return Collections.emptyList();
+                }
+                continue;
+            }
+            List<RDFNode> values = model.listObjectsOfProperty(subject, predicate).toList();
+            if (values.isEmpty()) {
+                //Corresponds to a failing non-optional pattern of the query
+                if (!property.nullable) {
+                    return Collections.emptyList();
+                }
+                continue;
+            }
+            bindings.put(property.key, values.get(0));
+            //The query would yield one solution per value
+            if (values.size() > 1 && ambiguousKey == null) {
+                ambiguousKey = property.key;
+                alternativeValue = values.get(1);
+            }
+        }
+
+        QuerySolutionMap solution = toSolution(bindings);
+        if (ambiguousKey == null) {
+            return Collections.singletonList(solution);
+        }
+        bindings.put(ambiguousKey, alternativeValue);
+        return Arrays.asList(solution, toSolution(bindings));
+    }
+
+    @Override
+    public Map<String, List<RDFNode>> selectMultiValuedProperties(String objectUri, Class<?> targetClass, Collection<PropertyMetadata> properties) {
+        Resource subject = model.createResource(objectUri);
+        Map<String, List<RDFNode>> values = new HashMap<>();
+        for (PropertyMetadata property : properties) {
+            if (property.collection) {
+                List<RDFNode> propertyValues = model.listObjectsOfProperty(subject, model.createProperty(expand(property.predicate))).toList();
+                if (!propertyValues.isEmpty()) {
+                    values.put(property.key, propertyValues);
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public List<QuerySolution> selectOtherProperties(String objectUri, Class<?> targetClass, Collection<PropertyMetadata> properties) {
+        Set<String> knownPredicates = new HashSet<>();
+        knownPredicates.add(RDF.type.getURI());
+        for (PropertyMetadata property : properties) {
+            knownPredicates.add(expand(property.predicate));
+        }
+
+        List<QuerySolution> solutions = new ArrayList<>();
+        StmtIterator statements = model.listStatements(model.createResource(objectUri), null, (RDFNode) null);
+        while (statements.hasNext()) {
+            Statement statement = statements.next();
+            if (!knownPredicates.contains(statement.getPredicate().getURI())) {
+                QuerySolutionMap solution = new QuerySolutionMap();
+                solution.add("p", statement.getPredicate());
+                solution.add("o", statement.getObject());
+                solutions.add(solution);
+            }
+        }
+        return solutions;
+    }
+
+    @Override
+    public boolean hasProperty(String objectUri, String predicate) {
+        return model.contains(model.createResource(objectUri), model.createProperty(expand(predicate)), (RDFNode) null);
+    }
+
+    @Override
+    public List<QuerySolution> describe(RDFNode node) {
+        List<QuerySolution> solutions = new ArrayList<>();
+        StmtIterator statements = model.listStatements(model.createResource(node.asNode().getURI()), null, (RDFNode) null);
+        while (statements.hasNext()) {
+            Statement statement = statements.next();
+            QuerySolutionMap solution = new QuerySolutionMap();
+            solution.add("s", statement.getSubject());
+            solution.add("p", statement.getPredicate());
+            solution.add("o", statement.getObject());
+            solutions.add(solution);
+        }
+        return solutions;
+    }
+
+    @Override
+    public List<QuerySolution> typedResources() {
+        List<QuerySolution> solutions = new ArrayList<>();
+        StmtIterator statements = model.listStatements(null, RDF.type, (RDFNode) null);
+        while (statements.hasNext()) {
+            Statement statement = statements.next();
+            QuerySolutionMap solution = new QuerySolutionMap();
+            solution.add("id", statement.getSubject());
+            solution.add("type", statement.getObject());
+            solutions.add(solution);
+        }
+        return solutions;
+    }
+
+    private static QuerySolutionMap toSolution(Map<String, RDFNode> bindings) {
+        QuerySolutionMap solution = new QuerySolutionMap();
+        bindings.forEach(solution::add);
+        return solution;
+    }
+
+    /**
+     * Expands a name as used in the queries of {@link SparqlPropertyReader}
+     * @param name Full URI or prefixed name, using the ids prefix or one of the known namespaces
+     * @return full URI
+     */
+    private String expand(String name) {
+        String uri = namespaces.expand(name);
+        if (uri == null) {
+            //The query would not even parse
+            throw new QueryParseException("Unresolved prefixed name: " + name, -1, -1);
+        }
+        return uri;
+    }
+}
@@ -0,0 +1,57 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A sequence of objects which is written as one JSON array, element by element, as they are retrieved from the iterator.
+ * By default, each element carries its own @context. If the context is hoisted, one shared @context is written instead
+ * and the elements are wrapped into an @graph array
+ */
+@JsonSerialize(using = JsonLDCollection.JsonLDCollectionSerializer.class)
+final class JsonLDCollection {
+
+    private final Iterator<?> items;
+    private final boolean hoistContext;
+
+    JsonLDCollection(Iterator<?> items, boolean hoistContext) {
+        this.items = items;
+        this.hoistContext = hoistContext;
+    }
+
+    static class JsonLDCollectionSerializer extends StdSerializer<JsonLDCollection> {
+
+        JsonLDCollectionSerializer() {
+            super(JsonLDCollection.class);
+        }
+
+        @Override
+        public void serialize(JsonLDCollection collection, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            if (collection.hoistContext) {
+                provider.setAttribute(JsonLDSerializer.CONTEXT_HOISTED, Boolean.TRUE);
+                gen.writeStartObject();
+                gen.writeObjectField("@context", JsonLDSerializer.sharedContext());
+                gen.writeFieldName("@graph");
+            }
+            gen.writeStartArray();
+            while (collection.items.hasNext()) {
+                Object item = collection.items.next();
+                //All elements are written by the provider of this call, each of them as top level object
+                if (item == null) {
+                    provider.defaultSerializeNull(gen);
+                } else {
+                    provider.findTypedValueSerializer(item.getClass(), true, null).serialize(item, gen, provider);
+                }
+            }
+            gen.writeEndArray();
+            if (collection.hoistContext) {
+                gen.writeEndObject();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Wraps the serializer of an enum, so that the prefixes required by its constants are collected when the
+ * {@link ContextCollectionMode#SINGLE_PASS} mode is active. The actual output is left to the wrapped serializer
+ */
+class JsonLDEnumSerializer extends StdSerializer<Object> implements ContextualSerializer {
+
+    private final JsonSerializer<Object> delegate;
+
+    @SuppressWarnings("unchecked")
+    JsonLDEnumSerializer(JsonSerializer<?> delegate) {
+        super(Object.class);
+        this.delegate = (JsonSerializer<Object>) delegate;
+    }
+
+    @Override
+    public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property) throws JsonMappingException {
+        if (!(delegate instanceof ContextualSerializer)) {
+            return this;
+        }
+        JsonSerializer<?> contextual = ((ContextualSerializer) delegate).createContextual(provider, property);
+        return contextual == delegate ? this : new JsonLDEnumSerializer(contextual);
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, Object value) {
+        return delegate.isEmpty(provider, value);
+    }
+
+    @Override
+    public void serialize(Object value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        JsonLDSerializer.collectContext(value, provider);
+        delegate.serialize(value, gen, provider);
+    }
+
+    @Override
+    public void serializeWithType(Object value, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+        JsonLDSerializer.collectContext(value, provider);
+        delegate.serializeWithType(value, gen, provider, typeSer);
+    }
+}
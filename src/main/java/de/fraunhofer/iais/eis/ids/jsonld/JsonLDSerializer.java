@@ -1,14 +1,14 @@
 package de.fraunhofer.iais.eis.ids.jsonld;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.WritableTypeId;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.databind.ser.BeanSerializer;
 import com.fasterxml.jackson.databind.ser.std.BeanSerializerBase;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 
 
@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.*;
@@ -27,26 +28,29 @@ public class JsonLDSerializer extends BeanSerializer {
 	private final Logger logger = LoggerFactory.getLogger(JsonLDSerializer.class);
 
     /**
-     * The counter must be static and cannot be given with the serializeWithType method as the BeanSerializer cannot be
-     * adjusted. However, the ThreadLocal construct should make sure that the static nature is not shared between
-     * multiple threads and thereby protect them from interfering with each other. See also:
-     * https://www.baeldung.com/java-threadlocal
+     * The recursion depth cannot be given with the serializeWithType method as the BeanSerializer cannot be adjusted.
+     * It is therefore stored as per-call attribute of the SerializerProvider. Jackson creates a new provider for each
+     * writeValue call, so concurrent serializations never share this state and no lock is required.
      */
-    private static ThreadLocal<Integer> currentRecursionDepth = ThreadLocal.withInitial(() -> 0);
-
-    static final Map<String, String> contextItems;
-
-    static {
-        contextItems = new HashMap<>();
-        contextItems.put("ids", "https://w3id.org/idsa/core/");
-        contextItems.put("idsc", "https://w3id.org/idsa/code/");
-        contextItems.put("info", "http://www.fraunhofer.de/fraunhofer-digital/infomodell/");
-        contextItems.put("kdsf", "http://kerndatensatz-forschung.de/version1/technisches_datenmodell/owl/Basis#");
-        contextItems.put("xsd", "http://www.w3.org/2001/XMLSchema#");
-        contextItems.put("owl", "http://www.w3.org/2002/07/owl#");
-        //TODO: We should probably add some other common namespaces, such as foaf or xsd
+    private static final class WriteState {
+        private int recursionDepth = 0;
+
+        /**
+         * Prefixes collected while writing the top level object. Only set in {@link ContextCollectionMode#SINGLE_PASS} mode
+         */
+        private Map<String, String> collectedContext = null;
+
+        /**
+         * Whether a DatPayload was written, i.e. whether the JWT claims are part of the collected @context
+         */
+        private boolean jwtFieldsCollected = false;
     }
 
+    /**
+     * Per-call attribute indicating that one shared @context has already been written (see {@link JsonLDCollection}),
+     * such that the top level objects must not carry their own
+     */
+    static final Object CONTEXT_HOISTED = new Object();
 
     JsonLDSerializer(BeanSerializerBase src) {
         super(src);
@@ -56,18 +60,44 @@ public class JsonLDSerializer extends BeanSerializer {
     public void serializeWithType(Object bean, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
         gen.setCurrentValue(bean);
 
-        // currentRecursionDepth++;
-        currentRecursionDepth.set(currentRecursionDepth.get() + 1);
+        WriteState writeState = getWriteState(provider);
+        writeState.recursionDepth++;
         gen.writeStartObject();
 
-        if (currentRecursionDepth.get() == 1) {
-            Map<String, String> filteredContext = new HashMap<>();
-            filterContextWrtBean(bean, filteredContext);
+        if (writeState.recursionDepth == 1 && provider.getAttribute(CONTEXT_HOISTED) == null) {
+            if (provider.getAttribute(ContextCollectionMode.class) == ContextCollectionMode.SINGLE_PASS) {
+                writeWithCollectedContext(bean, gen, provider, typeSer, writeState);
+                gen.writeEndObject();
+                writeState.recursionDepth--;
+                return;
+            }
+            SortedMap<String, String> prefixes = new TreeMap<>();
+            filterContextWrtBean(bean, prefixes);
+            Map<String, String> filteredContext = contextOf(prefixes);
             addJwtFieldsToContext(bean, filteredContext);
             gen.writeObjectField("@context", filteredContext);
             //gen.writeStringField("@context", "https://jira.iais.fraunhofer.de/stash/projects/ICTSL/repos/ids-infomodel-commons/raw/jsonld-context/3.0.0/context.jsonld"); // only add @context on top level
 
         }
+        writeTypeIdAndFields(bean, gen, provider, typeSer);
+        gen.writeEndObject();
+
+        writeState.recursionDepth--;
+    }
+
+    @Override
+    protected void serializeFields(Object bean, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        collectContext(bean, provider);
+        super.serializeFields(bean, gen, provider);
+    }
+
+    @Override
+    protected void serializeFieldsFiltered(Object bean, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        collectContext(bean, provider);
+        super.serializeFieldsFiltered(bean, gen, provider);
+    }
+
+    private void writeTypeIdAndFields(Object bean, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
         WritableTypeId typeIdDef = _typeIdDef(typeSer, bean, JsonToken.START_OBJECT);
         String resolvedTypeId = typeIdDef.id != null ? typeIdDef.id.toString() : typeSer.getTypeIdResolver().idFromValue(bean);
         if (resolvedTypeId != null) {
@@ -78,170 +108,182 @@ public class JsonLDSerializer extends BeanSerializer {
         } else {
             serializeFields(bean, gen, provider);
         }
-        gen.writeEndObject();
+    }
 
-        //currentRecursionDepth--;
-        currentRecursionDepth.set(currentRecursionDepth.get() - 1);
+    /**
+     * Writes the body of the top level object into a buffer, while the prefixes of all written objects are collected.
+     * Afterwards, the @context is written, followed by the buffered body. The object graph is thereby visited only once
+     * @param bean The top level object, whose START_OBJECT token has already been written
+     * @param gen The generator of the current call
+     * @param provider The SerializerProvider of the current call
+     * @param typeSer The type serializer of the top level object
+     * @param writeState The state of the current call
+     */
+    private void writeWithCollectedContext(Object bean, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer, WriteState writeState) throws IOException {
+        //Sorted like the prefixes of the pre-pass, see contextOf
+        SortedMap<String, String> collectedContext = new TreeMap<>();
+        TokenBuffer body = new TokenBuffer(gen.getCodec(), false);
+        writeState.collectedContext = collectedContext;
+        writeState.jwtFieldsCollected = false;
+        try {
+            body.writeStartObject();
+            body.setCurrentValue(bean);
+            writeTypeIdAndFields(bean, body, provider, typeSer);
+            body.writeEndObject();
+        } finally {
+            writeState.collectedContext = null;
+        }
+
+        Map<String, String> context = contextOf(collectedContext);
+        if (writeState.jwtFieldsCollected) {
+            addJwtFields(context);
+        }
+        gen.writeObjectField("@context", context);
+        try (JsonParser bodyParser = body.asParser()) {
+            bodyParser.nextToken(); //START_OBJECT of the buffered body
+            while (bodyParser.nextToken() == JsonToken.FIELD_NAME) {
+                gen.copyCurrentStructure(bodyParser);
+            }
+        }
+    }
+
+    /**
+     * Adds the prefixes required by a single object to the @context of the current call, if it is collected
+     * while writing (see {@link ContextCollectionMode#SINGLE_PASS}). Otherwise, this method does nothing
+     * @param value The object which is about to be written
+     * @param provider The SerializerProvider of the current call
+     */
+    static void collectContext(Object value, SerializerProvider provider) {
+        WriteState writeState = (WriteState) provider.getAttribute(WriteState.class);
+        if (writeState == null || writeState.collectedContext == null || value == null) return;
+        ContextPlan plan = ContextPlan.forClass(value.getClass());
+        if (plan.skipped) return;
+        addPrefixesOfBean(value, plan, writeState.collectedContext);
+        if (DatPayloadIndex.forClass(value.getClass()).isDatPayload) {
+            writeState.jwtFieldsCollected = true;
+        }
+    }
+
+    /**
+     * Retrieves the state of the current serialization call, creating it on the first (i.e. top level) bean
+     * @param provider The SerializerProvider of the current call
+     * @return state which is only visible to the current call
+     */
+    private static WriteState getWriteState(SerializerProvider provider) {
+        WriteState writeState = (WriteState) provider.getAttribute(WriteState.class);
+        if (writeState == null) {
+            writeState = new WriteState();
+            provider.setAttribute(WriteState.class, writeState);
+        }
+        return writeState;
     }
 
     /**
      * We need to add the fields of DatPayload to the context manually (if DatPayload present)
      * as RFC 7519 requires the exact field names specified below without any prefix for JWTs.
+     * Only fields which may lead to a DatPayload are read, see {@link DatPayloadIndex}
      * @param bean The object to be serialized
      * @param context The context map (with key: prefix, value: URI) to be filled
      */
     private void addJwtFieldsToContext(Object bean, Map<String, String> context) {
         if(bean == null || bean.getClass().getName().equals("com.sun.org.apache.xerces.internal.jaxp.datatype.XMLGregorianCalendarImpl") || bean.getClass().getName().equals("org.apache.jena.ext.xerces.jaxp.datatype.XMLGregorianCalendarImpl") || bean.getClass() == BigInteger.class) return;
-        if(bean.getClass().getSimpleName().contains("DatPayload")) {
-            Stream.of("referringConnector", "aud", "iss", "sub", "nbf", "exp", "iat")
-                    .forEach(k -> context.put(k, "ids:".concat(k)));
-        } else {
-            Stream.of(bean.getClass().getDeclaredFields()).forEach(f -> {
-            	
-                if(f.isSynthetic() || f.getType().isPrimitive() || f.getType().isEnum()
-                		|| f.getType().toString().contains("java.") 
-                		|| f.getType().toString().contains("javax.")) return;
-                boolean wasAccessible = f.isAccessible();
-                f.setAccessible(true);
-                try {
-                    addJwtFieldsToContext(f.get(bean), context);
-                } catch (IllegalAccessException e) {
-                    logger.error("setting accessible failed"); //TODO can we really simply catch it here?
-                }
-                f.setAccessible(wasAccessible);
-            });
+        DatPayloadIndex index = DatPayloadIndex.forClass(bean.getClass());
+        if(index.isDatPayload) {
+            addJwtFields(context);
+            return;
+        }
+        for(MethodHandle getter : index.candidateGetters) {
+            Object value;
+            try {
+                value = getter.invokeExact(bean);
+            } catch (Throwable e) {
+                logger.error("Reading a field of " + bean.getClass() + " failed", e);
+                continue;
+            }
+            addJwtFieldsToContext(value, context);
         }
     }
 
+    /**
+     * Computes a @context which is sufficient for any object graph, i.e. all known namespaces and the JWT claims of DatPayload
+     * @return context map (with key: prefix, value: URI), in the same order as the @context of a single object
+     */
+    static Map<String, String> sharedContext() {
+        Map<String, String> context = contextOf(new TreeMap<>(NamespaceRegistry.current().contextItems()));
+        addJwtFields(context);
+        return context;
+    }
+
+    /**
+     * Creates the map which is written as @context, filled with the prefixes in sorted order. The JWT claims are added afterwards.
+     * The order of a HashMap depends on the insertion order for keys sharing a bucket, e.g. an added namespace and a built-in prefix.
+     * As every @context is filled in the same order, both {@link ContextCollectionMode}s write the same @context
+     * @param prefixes The prefixes (with key: prefix, value: URI) required by the object graph, sorted by prefix
+     * @return modifiable context map
+     */
+    private static Map<String, String> contextOf(SortedMap<String, String> prefixes) {
+        Map<String, String> context = new HashMap<>();
+        prefixes.forEach(context::put);
+        return context;
+    }
+
+    private static void addJwtFields(Map<String, String> context) {
+        Stream.of("referringConnector", "aud", "iss", "sub", "nbf", "exp", "iat")
+                .forEach(k -> context.put(k, "ids:".concat(k)));
+    }
+
+    /**
+     * Collects all prefixes required by the object graph below bean. The expensive reflection is done only once per class,
+     * see {@link ContextPlan}
+     * @param bean The object to be serialized
+     * @param filteredContext The context map (with key: prefix, value: URI) to be filled
+     */
     private void filterContextWrtBean(Object bean, Map<String, String> filteredContext) {
-        if(bean == null || bean.getClass().getName().equals("com.sun.org.apache.xerces.internal.jaxp.datatype.XMLGregorianCalendarImpl") || bean.getClass().getName().equals("org.apache.jena.ext.xerces.jaxp.datatype.XMLGregorianCalendarImpl") || bean.getClass() == BigInteger.class) return; // XMLGregorianCalendarImpl causes infinite recursion
+        if(bean == null) return;
+        ContextPlan plan = ContextPlan.forClass(bean.getClass());
+        if(plan.skipped) return;
 
-        //Check if RdfResource or TypedLiteral is used. They contain a field called "type" which can reference to any namespace
-        //Therefore it is vital to also check the value of the type field for prefixes that need to be included in the context
-        if(bean.getClass().getSimpleName().equals("RdfResource") || bean.getClass().getSimpleName().equals("TypedLiteral"))
-        {
-            Field typeField = null;
-            try {
-                typeField = bean.getClass().getDeclaredField("type");
-            }
-            catch (NoSuchFieldException e)
-            {
-                try {
-                    typeField = bean.getClass().getSuperclass().getDeclaredField("type");
-                }
-                catch (NoSuchFieldException ignored) {}
-            }
-            if(typeField != null) {
-                typeField.setAccessible(true);
-
-                try {
-                    String type = (String) typeField.get(bean);
-                    if(type != null && !type.isEmpty()) {
-                        contextItems.forEach((p, u) -> {
-                            if (type.contains(p))
-                                filteredContext.put(p, u);
-                        });
-                    }
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
-                typeField.setAccessible(false);
-            }
-        }
-        contextItems.forEach((p, u) -> {
-            JsonTypeName typeNameAnnotation = bean.getClass().getAnnotation(JsonTypeName.class);
-            if(typeNameAnnotation != null && typeNameAnnotation.value().contains(p)) {
-                filteredContext.put(p, u);
-            }
-            //TODO: Dirty hard coded stuff...
-            if(typeNameAnnotation != null && typeNameAnnotation.value().toLowerCase().contains("catalog"))
-            {
-                filteredContext.put("idsc", "https://w3id.org/idsa/code/");
-            }
-            Stream.of(bean.getClass().getMethods()).forEach(m -> {
-                JsonProperty propertyAnnotation = m.getAnnotation(JsonProperty.class);
-                if(propertyAnnotation != null && propertyAnnotation.value().contains(p)) {
-                    filteredContext.put(p, u);
+        addPrefixesOfBean(bean, plan, filteredContext);
+
+        try {
+            // run through fields recursively
+            for(Field f : plan.collectionFields) {
+                Collection<?> c = (Collection<?>) f.get(bean);
+                if(c == null) {
+                    continue;
                 }
-            });
-        });
-        Stream.of(bean.getClass().getMethods()).forEach(m -> {
-            // run though all properties and check annotations. These annotations should contain the prefixes
-            JsonProperty prop = m.getAnnotation(JsonProperty.class);
-            if(prop != null)
-            {
-                for(Map.Entry<String, String> entry : contextItems.entrySet())
+                for(Object o : c)
                 {
-                    if(prop.value().startsWith(entry.getKey()))
-                    {
-                        filteredContext.put(entry.getKey(), entry.getValue());
-                        break;
-                    }
-                }
-            }
-            if(m.getReturnType().isEnum()) {
-                //Is there any enum constant starting with the IDSC namespace?
-                if (Arrays.stream(m.getReturnType().getEnumConstants()).anyMatch(constant -> constant.toString().startsWith(contextItems.get("idsc")))) {
-                    filteredContext.put("idsc", contextItems.get("idsc"));
+                    filterContextWrtBean(o, filteredContext);
                 }
             }
-        });
-        // run through fields recursively
-        for(Field f : getAllFields(new HashSet<>(), bean.getClass())) {
-
-            if(Collection.class.isAssignableFrom(f.getType()))
-            {
-                try {
-                    if(f.getType().getName().startsWith("java.") && !f.getType().getName().startsWith("java.util")) continue;
-                    boolean accessible = f.isAccessible();
-                    f.setAccessible(true);
-                    Collection<?> c = (Collection<?>) f.get(bean);
-                    if(c == null) {
-                        continue;
-                    }
-                    for(Object o : c)
-                    {
-                        filterContextWrtBean(o, filteredContext);
-                    }
-                    f.setAccessible(accessible);
-                }
-                catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            if (f.getType().isPrimitive() || f.getType().isEnum() || f.getType().isArray()
-                    || f.getType().getName().contains("java.")
-                    || f.getType().getName().contains("javax.")) continue;
-
-            try {
-                boolean wasAccessible = f.isAccessible();
-                f.setAccessible(true);
+            for(Field f : plan.objectFields) {
                 filterContextWrtBean(f.get(bean), filteredContext);
-                f.setAccessible(wasAccessible);
-            } catch (IllegalAccessException ignored) {
-                //logger.error("setting accessible failed"); //We can catch that here, as IllegalReflectiveAccess cannot occur on our own packages
             }
-
-            //f.trySetAccessible(wasAccessible);
-
+        } catch (IllegalAccessException ignored) {
+            //Cannot happen, as the plan only contains fields which were made accessible
         }
-
     }
 
     /**
-     * This function retrieves a set of all available fields of a class, including inherited fields
-     * @param fields Set to which discovered fields will be added. An empty HashSet should do the trick
-     * @param type The class for which fields should be discovered
-     * @return set of all available fields
+     * Adds the prefixes required by a single object, without visiting the objects it references
+     * @param bean The object to be serialized
+     * @param plan The plan of the class of bean
+     * @param context The context map (with key: prefix, value: URI) to be filled
      */
-    private static Set<Field> getAllFields(Set<Field> fields, Class<?> type) {
-        fields.addAll(Arrays.asList(type.getDeclaredFields()));
-
-        if (type.getSuperclass() != null) {
-            getAllFields(fields, type.getSuperclass());
+    private static void addPrefixesOfBean(Object bean, ContextPlan plan, Map<String, String> context) {
+        context.putAll(plan.staticPrefixes);
+        if(plan.typeField == null) return;
+        try {
+            String type = (String) plan.typeField.get(bean);
+            if(type != null && !type.isEmpty()) {
+                NamespaceRegistry.current().contextItems().forEach((p, u) -> {
+                    if (type.contains(p))
+                        context.put(p, u);
+                });
+            }
+        } catch (IllegalAccessException ignored) {
+            //Cannot happen, as the plan only contains fields which were made accessible
         }
-
-        return fields;
     }
 }
@@ -2,6 +2,7 @@ package de.fraunhofer.iais.eis.ids.jsonld;
 
 
 import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializationConfig;
 import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
@@ -22,4 +23,9 @@ public class JsonLDSerializerModifier extends BeanSerializerModifier {
             return serializer;
         }
     }
+
+    @Override
+    public JsonSerializer<?> modifyEnumSerializer(SerializationConfig config, JavaType valueType, BeanDescription beanDesc, JsonSerializer<?> serializer) {
+        return new JsonLDEnumSerializer(serializer);
+    }
 }
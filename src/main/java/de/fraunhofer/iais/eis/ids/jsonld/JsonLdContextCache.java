@@ -0,0 +1,227 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.github.jsonldjava.core.DocumentLoader;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.core.RemoteDocument;
+import com.github.jsonldjava.utils.JsonUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.JsonLDReader;
+import org.apache.jena.sparql.util.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of remote JSON-LD context documents (such as https://w3id.org/idsa/contexts/4.0.0/context.jsonld),
+ * which is used whenever JSON-LD is read into an RDF graph. Without it, the context is downloaded again for every message.
+ * <p>
+ * Contexts are resolved in this order:
+ * <ol>
+ *     <li>Preloaded contexts. These are registered via {@link #preload(String, InputStream)}, or listed in a classpath resource
+ *     {@value #INDEX_RESOURCE}, which maps context IRIs to classpath resources (one "IRI=resource" per line). Preloaded contexts are never evicted</li>
+ *     <li>Previously downloaded contexts, kept in a bounded LRU cache</li>
+ *     <li>Download, unless remote loading is disabled. Then, parsing input with an unknown remote context fails</li>
+ * </ol>
+ * The IDS contexts (versions 3.0.0 and 4.0.0) are bundled with this library and listed in its index, so IDS messages are parsed fully offline.
+ * All methods are thread-safe
+ */
+public final class JsonLdContextCache {
+
+    /**
+     * Classpath resource listing the contexts to be preloaded. All resources of this name on the classpath are read
+     */
+    public static final String INDEX_RESOURCE = "META-INF/ids-serializer/jsonld-contexts.properties";
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonLdContextCache.class);
+
+    private static final Map<String, Object> preloaded = new ConcurrentHashMap<>();
+
+    private static int maxDownloadedContexts = 32;
+
+    //Access ordered, so that the least recently used context is evicted first. Guarded by itself
+    private static final LinkedHashMap<String, Object> downloaded = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > maxDownloadedContexts;
+        }
+    };
+
+    private static volatile boolean remoteLoadingEnabled = true;
+
+    private static final DocumentLoader documentLoader = new CachingDocumentLoader();
+
+    static {
+        preloadFromClasspath();
+    }
+
+    private JsonLdContextCache() {
+    }
+
+    /**
+     * Registers a context document, so that it is never downloaded
+     * @param iri IRI of the context, exactly as referenced by "@context"
+     * @param document The UTF-8 encoded JSON-LD context document. The stream is not closed
+     * @throws IOException thrown, if the document is no valid JSON
+     */
+    public static void preload(String iri, InputStream document) throws IOException {
+        preloaded.put(iri, JsonUtils.fromInputStream(document));
+    }
+
+    /**
+     * Registers a context document, so that it is never downloaded
+     * @param iri IRI of the context, exactly as referenced by "@context"
+     * @param document The JSON-LD context document
+     * @throws IOException thrown, if the document is no valid JSON
+     */
+    public static void preload(String iri, Reader document) throws IOException {
+        preloaded.put(iri, JsonUtils.fromReader(document));
+    }
+
+    /**
+     * @param iri IRI of a context
+     * @return whether the context is available without downloading it
+     */
+    public static boolean isCached(String iri) {
+        if (preloaded.containsKey(iri)) {
+            return true;
+        }
+        synchronized (downloaded) {
+            return downloaded.containsKey(iri);
+        }
+    }
+
+    /**
+     * Enables or disables downloading contexts which are neither preloaded nor cached. Disable it to guarantee that parsing never
+     * accesses the network, e.g. on hosts without internet access. Enabled by default
+     * @param enabled whether unknown contexts may be downloaded
+     */
+    public static void setRemoteLoadingEnabled(boolean enabled) {
+        remoteLoadingEnabled = enabled;
+    }
+
+    public static boolean isRemoteLoadingEnabled() {
+        return remoteLoadingEnabled;
+    }
+
+    /**
+     * Sets how many downloaded contexts are kept. Preloaded contexts do not count towards this limit
+     * @param maxContexts maximum number of downloaded contexts, 32 by default
+     */
+    public static void setMaxDownloadedContexts(int maxContexts) {
+        if (maxContexts < 0) {
+            throw new IllegalArgumentException("The number of cached contexts must not be negative");
+        }
+        synchronized (downloaded) {
+            maxDownloadedContexts = maxContexts;
+            Iterator<String> iterator = downloaded.keySet().iterator();
+            while (downloaded.size() > maxContexts && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all downloaded contexts. Preloaded contexts are kept
+     */
+    public static void clearDownloaded() {
+        synchronized (downloaded) {
+            downloaded.clear();
+        }
+    }
+
+    /**
+     * Reads JSON-LD into a model, resolving remote contexts through this cache
+     * @param model Target model
+     * @param jsonLd UTF-8 encoded JSON-LD. The stream is not closed
+     */
+    public static void read(Model model, InputStream jsonLd) {
+        RDFParser.create().source(jsonLd).lang(RDFLanguages.JSONLD).context(jenaContext()).parse(model.getGraph());
+    }
+
+    /**
+     * Reads JSON-LD into a model, resolving remote contexts through this cache
+     * @param model Target model
+     * @param jsonLd JSON-LD document
+     */
+    public static void read(Model model, String jsonLd) {
+        RDFParser.create().fromString(jsonLd).lang(RDFLanguages.JSONLD).context(jenaContext()).parse(model.getGraph());
+    }
+
+    /**
+     * @return Jena context which makes the JSON-LD reader use this cache
+     */
+    private static Context jenaContext() {
+        //Same options as the defaults of Jena, except for the document loader
+        JsonLdOptions options = new JsonLdOptions(null);
+        options.useNamespaces = true;
+        options.setUseNativeTypes(true);
+        options.setCompactArrays(true);
+        options.setDocumentLoader(documentLoader);
+
+        Context context = new Context();
+        context.set(JsonLDReader.JSONLD_OPTIONS, options);
+        return context;
+    }
+
+    private static void preloadFromClasspath() {
+        try {
+            Enumeration<URL> indices = JsonLdContextCache.class.getClassLoader().getResources(INDEX_RESOURCE);
+            while (indices.hasMoreElements()) {
+                URL index = indices.nextElement();
+                Properties contexts = new Properties();
+                try (InputStream indexStream = index.openStream()) {
+                    contexts.load(indexStream);
+                }
+                for (String iri : contexts.stringPropertyNames()) {
+                    String resource = contexts.getProperty(iri);
+                    try (InputStream document = JsonLdContextCache.class.getClassLoader().getResourceAsStream(resource)) {
+                        if (document == null) {
+                            logger.warn("JSON-LD context " + iri + " is listed in " + index + ", but resource " + resource + " does not exist");
+                            continue;
+                        }
+                        preload(iri, document);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to preload JSON-LD contexts from the classpath", e);
+        }
+    }
+
+    /**
+     * Document loader of the JSON-LD processor, which looks up the preloaded and downloaded contexts before accessing the network
+     */
+    private static final class CachingDocumentLoader extends DocumentLoader {
+
+        @Override
+        public RemoteDocument loadDocument(String url) throws JsonLdError {
+            Object document = preloaded.get(url);
+            if (document == null) {
+                synchronized (downloaded) {
+                    document = downloaded.get(url);
+                }
+            }
+            if (document != null) {
+                return new RemoteDocument(url, document);
+            }
+            if (!remoteLoadingEnabled) {
+                throw new JsonLdError(JsonLdError.Error.LOADING_REMOTE_CONTEXT_FAILED, "Remote loading of JSON-LD contexts is disabled and " + url + " is not preloaded");
+            }
+            RemoteDocument remoteDocument = super.loadDocument(url);
+            synchronized (downloaded) {
+                downloaded.put(url, remoteDocument.getDocument());
+            }
+            return remoteDocument;
+        }
+    }
+}
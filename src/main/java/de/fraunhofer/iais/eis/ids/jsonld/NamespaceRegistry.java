@@ -0,0 +1,197 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+/**
+ * Immutable snapshot of the namespaces known to the serializer and the parser, see {@link Serializer#addKnownNamespace(String, String)}.
+ * <p>
+ * The current snapshot is read without locking. Adding a namespace replaces it (copy-on-write) by a snapshot with a higher version.
+ * Everything derived from the namespaces (context plans, type indices, enum indices, query templates) is cached in a {@link Cache},
+ * which discards its entries as soon as the version changes, so no explicit invalidation is required
+ */
+final class NamespaceRegistry {
+
+    private static final String IDS_NAMESPACE = "https://w3id.org/idsa/core/";
+
+    private static final AtomicReference<NamespaceRegistry> current = new AtomicReference<>(new NamespaceRegistry(0, defaultContextItems(), Collections.emptyMap()));
+
+    /**
+     * Generation counter, incremented whenever a namespace is added
+     */
+    final long version;
+
+    private final Map<String, String> contextItems;
+
+    private final Map<String, String> knownNamespaces;
+
+    private NamespaceRegistry(long version, Map<String, String> contextItems, Map<String, String> knownNamespaces) {
+        this.version = version;
+        this.contextItems = contextItems;
+        this.knownNamespaces = knownNamespaces;
+    }
+
+    /**
+     * @return the current snapshot
+     */
+    static NamespaceRegistry current() {
+        return current.get();
+    }
+
+    /**
+     * Adds a namespace to the current snapshot, or replaces the URL of its prefix. Concurrent updates are all applied
+     * @param prefix Prefix of the namespace, with or without trailing ":"
+     * @param namespaceUrl URL of the namespace
+     * @return the new snapshot
+     */
+    static NamespaceRegistry register(String prefix, String namespaceUrl) {
+        return current.updateAndGet(registry -> {
+            if (namespaceUrl.equals(registry.contextItems.get(prefix)) && namespaceUrl.equals(registry.knownNamespaces.get(prefix))) {
+                return registry;
+            }
+            Map<String, String> contextItems = new HashMap<>(registry.contextItems);
+            contextItems.put(prefix, namespaceUrl);
+            Map<String, String> knownNamespaces = new HashMap<>(registry.knownNamespaces);
+            knownNamespaces.put(prefix, namespaceUrl);
+            return new NamespaceRegistry(registry.version + 1, Collections.unmodifiableMap(contextItems), Collections.unmodifiableMap(knownNamespaces));
+        });
+    }
+
+    /**
+     * Replaces the current snapshot by the namespaces of an earlier one, e.g. to undo registrations in tests.
+     * The version is still incremented, so that values derived from the replaced namespaces are dropped
+     * @param snapshot Earlier snapshot, whose namespaces are restored
+     * @return the new snapshot
+     */
+    static NamespaceRegistry restore(NamespaceRegistry snapshot) {
+        return current.updateAndGet(registry -> new NamespaceRegistry(registry.version + 1, snapshot.contextItems, snapshot.knownNamespaces));
+    }
+
+    /**
+     * @return unmodifiable map of the prefixes which may appear in the @context of serialized objects, i.e. the common ones and the added ones
+     */
+    Map<String, String> contextItems() {
+        return contextItems;
+    }
+
+    /**
+     * @return unmodifiable map of the added namespaces, which are declared as prefixes in the queries of the parser
+     */
+    Map<String, String> knownNamespaces() {
+        return knownNamespaces;
+    }
+
+    /**
+     * Expands a prefixed name as used in the JsonTypeName and JsonAlias annotations
+     * @param name Full URI or prefixed name, using the ids prefix or one of the added namespaces
+     * @return full URI, or null if the prefix is unknown
+     */
+    String expand(String name) {
+        if (name.startsWith("http://") || name.startsWith("https://")) {
+            return name;
+        }
+        int separator = name.indexOf(':');
+        if (separator >= 0) {
+            String prefix = name.substring(0, separator);
+            String namespace = knownNamespaces.get(prefix);
+            if (namespace == null) {
+                namespace = knownNamespaces.get(prefix + ":");
+            }
+            if (namespace == null && prefix.equals("ids")) {
+                namespace = IDS_NAMESPACE;
+            }
+            if (namespace != null) {
+                return namespace + name.substring(separator + 1);
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> defaultContextItems() {
+        Map<String, String> contextItems = new HashMap<>();
+        contextItems.put("ids", IDS_NAMESPACE);
+        contextItems.put("idsc", "https://w3id.org/idsa/code/");
+        contextItems.put("info", "http://www.fraunhofer.de/fraunhofer-digital/infomodell/");
+        contextItems.put("kdsf", "http://kerndatensatz-forschung.de/version1/technisches_datenmodell/owl/Basis#");
+        contextItems.put("xsd", "http://www.w3.org/2001/XMLSchema#");
+        contextItems.put("owl", "http://www.w3.org/2002/07/owl#");
+        //TODO: We should probably add some other common namespaces, such as foaf or xsd
+        return Collections.unmodifiableMap(contextItems);
+    }
+
+    /**
+     * Cache of values which are derived from the namespaces. All entries belong to one version of the registry and are dropped
+     * (by replacing the map) once a newer version is seen. Safe for concurrent use
+     * @param <K> key type, e.g. a class
+     * @param <V> cached value
+     */
+    static final class Cache<K, V> {
+
+        private volatile Generation<K, V> generation = new Generation<>(-1);
+
+        /**
+         * @param key Key of the value
+         * @param factory Creates the value from the key and the current snapshot, if it is not cached for the current version yet
+         * @return the cached or newly created value
+         */
+        V get(K key, BiFunction<K, NamespaceRegistry, V> factory) {
+            NamespaceRegistry registry = current();
+            Map<K, V> values = values(registry);
+            if (values == null) {
+                return factory.apply(key, registry);
+            }
+            return values.computeIfAbsent(key, k -> factory.apply(k, registry));
+        }
+
+        /**
+         * @return the value cached for the key and the version of the snapshot, or null
+         */
+        V get(K key, NamespaceRegistry registry) {
+            Map<K, V> values = values(registry);
+            return values == null ? null : values.get(key);
+        }
+
+        /**
+         * Caches a value, which was created from the given snapshot
+         */
+        void put(K key, NamespaceRegistry registry, V value) {
+            Map<K, V> values = values(registry);
+            if (values != null) {
+                values.put(key, value);
+            }
+        }
+
+        /**
+         * @return the entries of the version of the snapshot, or null if the snapshot is already outdated
+         */
+        private Map<K, V> values(NamespaceRegistry registry) {
+            Generation<K, V> current = generation;
+            if (current.version == registry.version) {
+                return current.values;
+            }
+            if (current.version > registry.version) {
+                //Values created from an outdated snapshot must not be cached
+                return null;
+            }
+            synchronized (this) {
+                if (generation.version < registry.version) {
+                    generation = new Generation<>(registry.version);
+                }
+                return generation.version == registry.version ? generation.values : null;
+            }
+        }
+
+        private static final class Generation<K, V> {
+            private final long version;
+            private final Map<K, V> values = new ConcurrentHashMap<>();
+
+            private Generation(long version) {
+                this.version = version;
+            }
+        }
+    }
+}
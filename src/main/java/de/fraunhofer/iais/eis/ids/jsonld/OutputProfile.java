@@ -0,0 +1,18 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+/**
+ * Layout of the serialized output. Both profiles describe exactly the same RDF graph
+ */
+public enum OutputProfile {
+
+    /**
+     * Indented, human readable output. This is the default
+     */
+    PRETTY,
+
+    /**
+     * JSON(-LD) without any whitespace between tokens. Turtle and RDF/XML are written with Jena's non-pretty writers,
+     * which avoid the costly analysis of the graph structure, as there is no whitespace-free variant of these formats
+     */
+    COMPACT
+}
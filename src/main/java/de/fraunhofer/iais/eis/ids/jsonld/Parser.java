@@ -1,104 +1,104 @@
 package de.fraunhofer.iais.eis.ids.jsonld;
 
-import com.fasterxml.jackson.annotation.JsonAlias;
-import com.fasterxml.jackson.annotation.JsonSubTypes;
-import com.fasterxml.jackson.annotation.JsonTypeName;
+import de.fraunhofer.iais.eis.ids.jsonld.util.XsdDateTimeHelper;
 import de.fraunhofer.iais.eis.util.RdfResource;
 import de.fraunhofer.iais.eis.util.TypedLiteral;
 import org.apache.jena.datatypes.DatatypeFormatException;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.*;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RDFLanguages;
 import org.apache.jena.riot.RiotException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.validation.constraints.NotNull;
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.*;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.*;
 
 
 /**
- * Internal class to handle the parsing of JSON-LD into java objects
+ * Internal class to handle the parsing of JSON-LD into java objects.
+ * Instances are immutable and thread-safe, so that one instance is shared by all deserialize calls of a {@link Serializer}.
+ * All state of a single call (model, reader) lives on the stack. The class metadata, query templates and type indices
+ * are static caches, which are safe for concurrent use and are shared by all instances
  * @author mboeckmann
  */
 class Parser {
 
-    Logger logger = LoggerFactory.getLogger(Parser.class);
+    private static final Logger logger = LoggerFactory.getLogger(Parser.class);
 
-    static Map<String, String> knownNamespaces = new HashMap<>();
+    private final ParserEngine engine;
+
+    private final RootSelectionStrategy rootSelectionStrategy;
+
+    Parser() {
+        this(ParserEngine.SPARQL);
+    }
+
+    /**
+     * @param engine The engine used to read the properties of objects from the RDF graph
+     */
+    Parser(ParserEngine engine) {
+        this(engine, RootSelectionStrategy.GRAPH_INDEX);
+    }
+
+    /**
+     * @param engine The engine used to read the properties of objects from the RDF graph
+     * @param rootSelectionStrategy The strategy choosing the returned object, if several objects match the target class
+     */
+    Parser(ParserEngine engine, RootSelectionStrategy rootSelectionStrategy) {
+        this.engine = engine;
+        this.rootSelectionStrategy = rootSelectionStrategy;
+    }
+
+    private PropertyReader createReader(Model model) {
+        return engine == ParserEngine.GRAPH ? new GraphPropertyReader(model) : new SparqlPropertyReader(model);
+    }
 
     /**
      * Main internal method for creating a java object from a given RDF graph and a URI of the object to handle
-     * @param inputModel Model on which queries are to be evaluated from which information can be retrieved
+     * @param reader Access to the RDF graph from which information can be retrieved
      * @param objectUri URI of the object to be handled
      * @param targetClass Variable containing the class which should be returned
      * @param <T> Class which should be returned
-     * @return Object of desired class, filled with the values extracted from inputModel
+     * @return Object of desired class, filled with the values extracted from the graph
      * @throws IOException thrown if the parsing fails
      */
-    private <T> T handleObject(Model inputModel, String objectUri, Class<T> targetClass) throws IOException {
+    private <T> T handleObject(PropertyReader reader, String objectUri, Class<T> targetClass) throws IOException {
         try {
 
             //if(!targetClass.getSimpleName().endsWith("Impl")) //This would not work for "TypedLiteral", "RdfResource" and so on
             //Check whether we are dealing with an instantiable class (i.e. no interface and no abstract class)
             if (targetClass.isInterface() || Modifier.isAbstract(targetClass.getModifiers())) {
                 //We don't know the desired class yet (current targetClass is not instantiable). This is only known for the root object
-                ArrayList<Class<?>> implementingClasses = getImplementingClasses(targetClass);
+                TypeIndex typeIndex = TypeIndex.forClass(targetClass);
 
                 //Get a list of all "rdf:type" statements in our model
-                String queryString = "SELECT ?type { BIND(<" + objectUri + "> AS ?s). ?s a ?type . }";
-                Query query = QueryFactory.create(queryString);
-                QueryExecution queryExecution = QueryExecutionFactory.create(query, inputModel);
-                ResultSet resultSet = queryExecution.execSelect();
+                List<RDFNode> types = reader.types(objectUri);
 
-                if (!resultSet.hasNext()) {
-                    queryExecution.close();
+                if (types.isEmpty()) {
                     throw new IOException("Could not extract class of child object. ID: " + objectUri);
                 }
 
-                //Class<?> candidateClass = null;
-
                 String fullName = "No triple present indicating type.";
-                while (resultSet.hasNext()) {
-                    QuerySolution solution = resultSet.nextSolution();
-                    fullName = solution.get("type").toString();
+                for (RDFNode type : types) {
+                    fullName = type.toString();
 
-                    //Expected URI is something like https://w3id.org/idsa/core/ClassName (and we want ClassName)
-                    String className = fullName.substring(fullName.lastIndexOf('/') + 1);
-
-                    //Some namespaces use "#" instead of "/"
-                    if (className.contains("#")) {
-                        className = className.substring(className.lastIndexOf("#") + 1);
-                    }
-
-                    for (Class<?> currentClass : implementingClasses) {
-                        //Is this class instantiable?
-                        if (!currentClass.isInterface() && !Modifier.isAbstract(currentClass.getModifiers())) {
-                            //candidateClass = currentClass;
-                            if (currentClass.getSimpleName().equals(className) || currentClass.getSimpleName().equals(Serializer.implementingClassesNamePrefix + className + Serializer.implementingClassesNameSuffix)) {
-                                targetClass = (Class<T>) currentClass;
-                                break;
-                            }
-                        }
+                    Class<?> implementingClass = typeIndex.resolve(fullName);
+                    if (implementingClass != null) {
+                        targetClass = (Class<T>) implementingClass;
                     }
                 }
-                queryExecution.close();
                 //Did we find "the" class, i.e. instantiable and name matches?
                 if (targetClass.isInterface() || Modifier.isAbstract(targetClass.getModifiers())) {
                     //No, the current targetClass cannot be instantiated. Do we have a candidate class?
@@ -115,262 +115,50 @@ class Parser {
                 return handleEnum(targetClass, objectUri);
             }
 
-            //Get constructor (which is package private for our classes) and make it accessible
-            Constructor<T> constructor = targetClass.getDeclaredConstructor();
-            constructor.setAccessible(true);
+            //Constructor, setters and id field of the class are only looked up once
+            ClassMetadata metadata = ClassMetadata.forClass(targetClass);
 
             //Instantiate new object, which will be returned at the end
-            T returnObject = constructor.newInstance();
-
-            //Get methods
-            Method[] methods = returnObject.getClass().getDeclaredMethods();
-
-            //Store methods in map. Key is the name of the RDF property without ids prefix
-            //Use a TreeMap to have the properties sorted alphabetically
-            Map<String, Method> methodMap = new TreeMap<>();//(Comparator.reverseOrder());
-
-
-            //Get all relevant methods (setters, but not for label, comment or external properties)
-            Arrays.stream(methods).filter(method -> {
-                String name = method.getName();
-                //Filter out irrelevant methods
-                return name.startsWith("set") && !name.equals("setProperty") && !name.equals("setComment") && !name.equals("setLabel") && !name.equals("setId");
-            }).forEach(method -> {
-                //Remove "set" part
-                String reducedName = method.getName().substring(3);
-
-                //Turn first character to lower case
-                char[] c = reducedName.toCharArray();
-                c[0] = Character.toLowerCase(c[0]);
-                String finalName = new String(c);
-                methodMap.put(finalName, method);
-
-            });
-
-            //There is no "setId" method in our CodeGen generated classes, so we get the field
-            Field idField = returnObject.getClass().getDeclaredField("id");
-
-            //Store whether or not it was accessible, so that we can undo making it accessible
-            boolean wasAccessible = idField.isAccessible();
-            idField.setAccessible(true);
+            T returnObject = (T) metadata.newInstance();
 
             //Set the ID of the object to be identical with the objectUri parameter
-            idField.set(returnObject, new URI(objectUri));
-            idField.setAccessible(wasAccessible);
+            metadata.setId(returnObject, new URI(objectUri));
 
             //Is this a trivial class with 0 fields? If so, the generated query would be "SELECT { }", which is illegal
-            if(methodMap.isEmpty())
+            if(metadata.properties.isEmpty())
             {
                 return returnObject;
             }
 
-
-            //A list which stores all those parameter names which may occur only once (i.e. those occurring in the GROUP BY clause)
-            List<String> groupByKeys = new ArrayList<>();
-
-            StringBuilder queryStringBuilder = new StringBuilder();
-
-            queryStringBuilder.append("PREFIX ids: <https://w3id.org/idsa/core/>\n");
-            for(Map.Entry<String, String> entry : knownNamespaces.entrySet())
-            {
-                queryStringBuilder.append("PREFIX ").append(entry.getKey());
-                if(!entry.getKey().endsWith(":"))
-                {
-                    queryStringBuilder.append(":");
-                }
-                queryStringBuilder.append(" <").append(entry.getValue()).append(">\n");
-            }
-            queryStringBuilder.append("SELECT");
-            methodMap.forEach((key1, value) -> {
-                //Is the return type some sort of List?
-                if (Collection.class.isAssignableFrom(value.getParameterTypes()[0])) {
-                    boolean isTypedLiteral = false;
-                    //Yes, it is assignable multiple times. Concatenate multiple values together using some delimiter
-                    try {
-                        //ArrayLists are generics. We need to extract the name of the generic parameter as string and interpret that
-                        String typeName = extractTypeNameFromList(value.getGenericParameterTypes()[0]);
-
-                        if (typeName.endsWith("TypedLiteral")) isTypedLiteral = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    if (isTypedLiteral) {
-                        queryStringBuilder.append(" (GROUP_CONCAT(CONCAT('\"',?").append(key1).append(",'\"@', lang(?").append(key1).append("));separator=\"||\") AS ?").append(key1).append("sLang) ");
-                    }
-                    queryStringBuilder.append(" (GROUP_CONCAT(?").append(key1).append(";separator=\"||\") AS ?").append(key1).append("s) ");
-
-                } else {
-                    //No, it's not a list. No need to aggregate
-                    queryStringBuilder.append(" ?").append(key1);
-                    //We will have to GROUP BY this variable though...
-                    groupByKeys.add(key1);
-                }
-            });
-            //Start the "WHERE" part - Fuseki does not expect the "WHERE" keyword, but just an "{"
-            queryStringBuilder.append(" { ");
-
-            //Make sure that the object is of the correct type
-            //This is particularly relevant in case of all fields being optional -- then one could simply parse a random object
-            queryStringBuilder.append(" <").append(objectUri).append("> a ").append(wrapIfUri(targetClass.getAnnotation(JsonTypeName.class).value())).append(". ");
-
-            //In case we get an empty result set, we want to know whether or not the query failed (i.e. mandatory field missing)
-            boolean containsNotNullableField = false;
-
-            for (Map.Entry<String, Method> entry : methodMap.entrySet()) {
-                //Is this a field which is annotated by NOT NULL?
-                //Attempt to find a field matching the setter method name
-                //E.g. for "setSomething", we search for a field with name "_something" (IDS way) and "something"
-                Field field = getFieldByName(targetClass, entry.getKey());
-
-                boolean nullable = !field.isAnnotationPresent(NotNull.class);
-
-                //If it is "nullable", we need to make this optional
-                if (nullable) {
-                    queryStringBuilder.append(" OPTIONAL {");
-                } else {
-                    //Found at least one not nullable field
-                    containsNotNullableField = true;
-                }
-                queryStringBuilder.append(" <").append(objectUri).append("> "); //subject, as passed to the function
-                        //For the field, get the JsonAlias annotation (present for all classes generated by the CodeGen tool)
-                        //Find the annotation value containing a colon and interpret this as "prefix:predicate"
-                boolean foundAnnotation = false;
-                if(field.getAnnotation(JsonAlias.class) != null) {
-                    Optional<String> currentAnnotation = Arrays.stream(field.getAnnotation(JsonAlias.class).value()).map(this::ignoreSuffix).map(this::wrapIfUri).filter(annotation -> annotation.contains(":")).findFirst();
-                    currentAnnotation.ifPresent(queryStringBuilder::append);
-                    foundAnnotation = true;
-                }
-                if(!foundAnnotation)
-                {
-                    logger.warn("Failed to retrieve JsonAlias for field " + field + ". Assuming ids:" + entry.getKey());
-                    queryStringBuilder.append("ids:").append(entry.getKey());
-                }
-                queryStringBuilder.append(" ?").append(entry.getKey()).append(" ."); //object
-                if (nullable) {
-                    queryStringBuilder.append("} ");
-                }
-            }
-
-
-            queryStringBuilder.append(" } ");
-
-            //Do we need to group? We do, if there is at least one property which can occur multiple times
-            //We added all those properties, which may only occur once, to the groupByKeys list
-            if (!groupByKeys.isEmpty()) {
-                queryStringBuilder.append("GROUP BY");
-                for (String key : groupByKeys) {
-                    queryStringBuilder.append(" ?").append(key);
-                }
-            }
-
-            String queryString = queryStringBuilder.toString();
-
-            StringBuilder queryForOtherProperties = new StringBuilder();
-            //Query for all unknown properties and their values
-            //Select properties and values only
-
-            //CONSTRUCT { ?s ?p ?o } { ?s ?p ?o. FILTER(?p NOT IN (liste der ids: properties)) }
-            queryForOtherProperties.append("PREFIX ids: <https://w3id.org/idsa/core/>\n")
-                    .append("PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n");
-
-            for(Map.Entry<String, String> entry : knownNamespaces.entrySet())
-            {
-                queryForOtherProperties.append("PREFIX ").append(entry.getKey());
-                if(!entry.getKey().endsWith(":")) {
-                    queryForOtherProperties.append(":");
-                }
-                queryForOtherProperties.append(" <").append(entry.getValue()).append(">\n");
-            }
-
-            //Respect ALL properties and values
-            queryForOtherProperties.append(" SELECT ?p ?o {  <").append(objectUri).append("> ?p ?o .\n");
-
-            //Exclude known properties
-            queryForOtherProperties.append("FILTER (?p NOT IN (rdf:type");
-
-            //Predicates usually look like: .append("ids:").append(entry.getKey())
-            for (Map.Entry<String, Method> entry : methodMap.entrySet()) {
-                queryForOtherProperties.append(", ");
-
-                Field field = getFieldByName(targetClass, entry.getKey());
-                Optional<String> currentAnnotation = Arrays.stream(field.getAnnotation(JsonAlias.class).value()).map(this::ignoreSuffix).filter(annotation -> annotation.contains(":")).filter(s -> s.length() > 1).findFirst();
-                if(currentAnnotation.isPresent())
-                {
-                    queryForOtherProperties.append(wrapIfUri(currentAnnotation.get()));
-                }
-                else
-                {
-                    logger.warn("Failed to retrieve JsonAlias for field " + field + ". Assuming ids:" + entry.getKey());
-                    queryForOtherProperties.append("ids:").append(entry.getKey());
-                }
-            }
-
-            queryForOtherProperties.append(")). } ");
-
+            List<PropertyMetadata> properties = metadata.properties;
 
             //Now that we searched for all "known properties", let's search for all unrecognized content and append it to a generic properties map
+            List<QuerySolution> externalProperties = reader.selectOtherProperties(objectUri, targetClass, properties);
 
-            Query externalPropertiesQuery = QueryFactory.create(queryForOtherProperties.toString());
-            QueryExecution externalPropertiesQueryExecution = QueryExecutionFactory.create(externalPropertiesQuery, inputModel);
-            ResultSet externalPropertiesResultSet = externalPropertiesQueryExecution.execSelect();
-
-
-            Query query = QueryFactory.create(queryString);
-
-            //Evaluate query
-            QueryExecution queryExecution = QueryExecutionFactory.create(query, inputModel);
-            ResultSet resultSet = queryExecution.execSelect();
-
+            Iterator<QuerySolution> resultSet = reader.selectProperties(objectUri, targetClass, Objects.requireNonNull(metadata.typeName), properties).iterator();
 
             if (!resultSet.hasNext()) {
-                queryExecution.close();
                 //no content... ONLY allowed, if the class has optional fields only (i.e. no mandatory fields)!
-                if (containsNotNullableField) {
+                if (properties.stream().anyMatch(property -> !property.nullable)) {
                     //There is at least one mandatory field. Hence, incoming message was illegal. Preparing some error message to be returned
 
-                    //Create a query to find out which element is missing
-                    StringBuilder diagnosticString = new StringBuilder();
-                    diagnosticString.append("PREFIX ids: <https://w3id.org/idsa/core/>\n")
-                            .append("PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n");
-                    for(Map.Entry<String, String> entry : knownNamespaces.entrySet())
-                    {
-                        diagnosticString.append("PREFIX ").append(entry.getKey());
-                        if(!entry.getKey().endsWith(":")) {
-                            diagnosticString.append(":");
-                        }
-                        diagnosticString.append(" <").append(entry.getValue()).append(">\n");
-                    }
-                    diagnosticString.append("SELECT ?o { <").append(objectUri).append("> ");
-
+                    //Find out which element is missing
                     List<String> missingElements = new ArrayList<>();
 
                     StringBuilder notNullableFieldNames = new StringBuilder();
-                    for (Map.Entry<String, Method> entry : methodMap.entrySet()) {
-                        Field field = getFieldByName(targetClass, entry.getKey());
-                        if (field.isAnnotationPresent(NotNull.class)) {
+                    for (PropertyMetadata property : properties) {
+                        if (!property.nullable) {
                             if (notNullableFieldNames.length() > 0) {
                                 notNullableFieldNames.append(", ");
                             }
-                            notNullableFieldNames.append(entry.getKey());
-
-                            //Get the name of the property as written in RDF, i.e. "prefix:propertyName"
-                            Optional<String> currentAnnotation = Arrays.stream(field.getAnnotation(JsonAlias.class).value()).map(this::ignoreSuffix).filter(annotation -> annotation.contains(":")).findFirst();
-                            if(currentAnnotation.isPresent()) {
-                                //Query for this field (we know already that it is mandatory)
-                                String checkIfMandatoryFieldPresent = diagnosticString + currentAnnotation.get() + " ?o }";
-                                Query checkExistsQuery = QueryFactory.create(checkIfMandatoryFieldPresent);
-
-                                QueryExecution checkExistsQueryExecution = QueryExecutionFactory.create(checkExistsQuery, inputModel);
-                                ResultSet checkExistsResultSet = checkExistsQueryExecution.execSelect();
-                                //Check if we can find some value. If not, this field is definitely causing errors
-                                if(!checkExistsResultSet.hasNext())
-                                {
-                                    missingElements.add(currentAnnotation.get());
-                                }
+                            notNullableFieldNames.append(property.key);
+
+                            //Check if we can find some value. If not, this field is definitely causing errors
+                            if (!reader.hasProperty(objectUri, property.predicate)) {
+                                missingElements.add(property.predicate);
                             }
                         }
                     }
-                    logger.info("Executed query: " + queryString);
                     if(missingElements.size() > 0)
                     {
                         StringBuilder errorMessage = new StringBuilder("The following mandatory field(s) of " + returnObject.getClass().getSimpleName().replace("Impl", "") + " are not filled or invalid: ");
@@ -398,14 +186,10 @@ class Parser {
             // dependency, take care about the ones within foreign namespaces and add those to the 'properties' field
             // note that not all models (e.g. AAS) have such methods. In case they do not exist, skip adding external properties
 
-            try {
-                Method setProperty = returnObject.getClass().getDeclaredMethod("setProperty", String.class, Object.class);
-                Method getProperties = returnObject.getClass().getDeclaredMethod("getProperties");
-
-                while (externalPropertiesResultSet.hasNext()) {
-                    QuerySolution externalPropertySolution = externalPropertiesResultSet.next();
+            if (metadata.supportsExternalProperties()) {
+                for (QuerySolution externalPropertySolution : externalProperties) {
 
-                    HashMap<String, Object> currentProperties = (HashMap<String, Object>) getProperties.invoke(returnObject);
+                    HashMap<String, Object> currentProperties = (HashMap<String, Object>) metadata.getProperties(returnObject);
 
                     //Avoid NullPointerException
                     if (currentProperties == null) {
@@ -432,32 +216,30 @@ class Parser {
                         if (currentProperties.containsKey(propertyUri)) {
                             ArrayList<Object> currentPropertyArray = ((ArrayList<Object>) currentProperties.get(propertyUri));
                             currentPropertyArray.add(o);
-                            setProperty.invoke(returnObject, propertyUri, currentPropertyArray);
+                            metadata.setProperty(returnObject, propertyUri, currentPropertyArray);
                         }
                         //Otherwise save as new plain value
                         else {
-                            setProperty.invoke(returnObject, propertyUri, o);
+                            metadata.setProperty(returnObject, propertyUri, o);
                         }
                     } else {
                         //It is a complex object. Distinguish whether or not we need to store as array
-                        HashMap<String, Object> subMap = handleForeignNode(externalPropertySolution.getResource("o"), new HashMap<>(), inputModel);
+                        HashMap<String, Object> subMap = handleForeignNode(externalPropertySolution.getResource("o"), new HashMap<>(), reader);
                         subMap.put("@id", externalPropertySolution.getResource("o").getURI());
                         if (currentProperties.containsKey(propertyUri)) {
                             ArrayList<Object> currentPropertyArray = ((ArrayList<Object>) currentProperties.get(propertyUri));
                             currentPropertyArray.add(subMap);
-                            setProperty.invoke(returnObject, propertyUri, currentPropertyArray);
+                            metadata.setProperty(returnObject, propertyUri, currentPropertyArray);
                         } else {
-                            setProperty.invoke(returnObject, propertyUri, subMap);
+                            metadata.setProperty(returnObject, propertyUri, subMap);
                         }
                     }
                 }
-                externalPropertiesQueryExecution.close();
-            }
-            catch (NoSuchMethodException ignored)
-            {
-                //Method does not exist, skip
             }
 
+            //Values of all lists, as nodes of the graph
+            Map<String, List<RDFNode>> multiValuedProperties = reader.selectMultiValuedProperties(objectUri, targetClass, properties);
+
             //SPARQL binding present, iterate over result and construct return object
             while (resultSet.hasNext()) {
                 QuerySolution querySolution = resultSet.next();
@@ -487,186 +269,144 @@ class Parser {
                     throw new IOException("Multiple bindings for SPARQL query which should only have one binding. Input contains multiple values for a field which may occur only once.");
                 }
 
-                for (Map.Entry<String, Method> entry : methodMap.entrySet()) {
+                for (PropertyMetadata property : properties) {
 
                     //What is this method setting? Get the expected parameter type and check whether it is some complex sub-object and whether this is a list
-                    Class<?> currentType = entry.getValue().getParameterTypes()[0];
-                    //Is this a field which is annotated by NOT NULL?
-                    //boolean nullable = !targetClass.getDeclaredField("_" + entry.getKey()).isAnnotationPresent(NotNull.class);
-
-                    String sparqlParameterName = entry.getKey();
+                    Class<?> currentType = property.type;
 
-                    if (Collection.class.isAssignableFrom(currentType)) {
-                        sparqlParameterName += "s"; //plural form for the concatenated values
-                    }
-                    if (querySolution.contains(sparqlParameterName)) {
-                        String currentSparqlBinding = querySolution.get(sparqlParameterName).toString();
+                    String sparqlParameterName = property.key;
 
-                        if (currentType.isEnum()) {
-                            entry.getValue().invoke(returnObject, handleEnum(currentType, currentSparqlBinding));
+                    if (property.collection) {
+                        List<RDFNode> values = multiValuedProperties.get(property.key);
+                        if (values == null) {
                             continue;
                         }
-
-
-                        //There is a binding. If it is a complex sub-object, we need to recursively call this function
-                        if (Collection.class.isAssignableFrom(currentType)) {
-                            //We are working with ArrayLists.
-                            //Here, we need to work with the GenericParameterTypes instead to find out what kind of ArrayList we are dealing with
-                            String typeName = extractTypeNameFromList(entry.getValue().getGenericParameterTypes()[0]);
-                            if (isArrayListTypePrimitive(entry.getValue().getGenericParameterTypes()[0])) {
-                                if (typeName.endsWith("TypedLiteral")) {
-                                    try {
-                                        currentSparqlBinding = querySolution.get(sparqlParameterName + "Lang").toString();
-                                    } catch (NullPointerException e) {
-                                        logger.warn("Failed to retrieve localized/typed values of " + currentSparqlBinding + ". Make sure that namespaces used in this property are known and valid. Proceeding without localized values and interpreting as string.");
-                                    }
+                        //We are working with ArrayLists. The element class was resolved from the generic parameter type
+                        Class<?> elementClass = property.elementClass;
+                        //Introduce set to deduplicate, as different nodes may turn into the same value (e.g. the same string in two languages)
+                        Set<Object> elements = new LinkedHashSet<>();
+                        if (property.primitive) {
+                            for (RDFNode value : values) {
+                                if (value.isAnon()) {
+                                    //Blank nodes have no value which could be turned into a primitive
+                                    continue;
                                 }
-                                ArrayList<Object> list = new ArrayList<>();
-                                //Two pipes were used as delimiter above
-                                //Introduce set to deduplicate
-                                Set<String> allElements = new HashSet<>(Arrays.asList(currentSparqlBinding.split("\\|\\|")));
-                                for (String s : allElements) {
-                                    Literal literal;
-                                    //querySolution.get(sparqlParameterName).
-                                    if (s.endsWith("@")) {
-                                        s = s.substring(2, s.length() - 3);
-                                        literal = ResourceFactory.createStringLiteral(s);
-                                    } else if (s.startsWith("\\")) {
-                                        //turn something like \"my Desc 1\"@en to "my Desc 1"@en
-                                        s = s.substring(1).replace("\\\"@", "\"@");
-                                        literal = ResourceFactory.createLangLiteral(s.substring(1, s.lastIndexOf("@") - 1), s.substring(s.lastIndexOf("@") + 1));
-                                    } else {
-                                        literal = ResourceFactory.createPlainLiteral(s);
-                                    }
-
-                                    //Is the type of the ArrayList some built in Java primitive?
+                                String s = lexicalForm(value);
+                                Literal literal = value.isLiteral() ? value.asLiteral() : ResourceFactory.createPlainLiteral(s);
 
-                                    if (builtInMap.containsKey(typeName)) {
-                                        //Yes, it is. We MUST NOT call Class.forName(name)!
-                                        list.add(handlePrimitive(builtInMap.get(typeName), literal, null));
-                                    } else {
-                                        //Not a Java primitive, we may call Class.forName(name)
-                                        list.add(handlePrimitive(Class.forName(typeName), literal, s));
-                                    }
-                                }
+                                //Java primitives are handled from the literal only
+                                elements.add(handlePrimitive(elementClass, literal, property.elementBuiltIn ? null : s));
+                            }
 
-                                entry.getValue().invoke(returnObject, list);
+                            property.set(returnObject, new ArrayList<>(elements));
 
-                            } else {
-                                //List of complex sub-objects, such as a list of Resources in a ResourceCatalog
-                                ArrayList<Object> list = new ArrayList<>();
-                                Set<String> allElements = new HashSet<>(Arrays.asList(currentSparqlBinding.split("\\|\\|")));
-                                for (String s : allElements) {
-                                    if (Class.forName(typeName).isEnum()) {
-                                        list.add(handleEnum(Class.forName(typeName), s));
-                                    } else {
-                                        if (!sparqlParameterName.endsWith("AsUris")){
-                                            //Special case: For parameters like "assignee" there is the possibility that only a URI for "assigneeAsUri"
-                                            //is given. In this case there is no @type, but we can ignore that because we only need to parse the URI.
-                                            try {
-                                                list.add(handleObject(inputModel, s, Class.forName(typeName)));
-                                            } catch (IOException exception) {
-                                                if (!exception.getMessage().equals(("Could not extract class of child object. ID: " + s))){
-                                                    throw new IOException(exception.getMessage());
-                                                }
+                        } else {
+                            //List of complex sub-objects, such as a list of Resources in a ResourceCatalog
+                            for (RDFNode value : values) {
+                                if (value.isAnon()) {
+                                    //Blank nodes cannot be referenced by URI
+                                    continue;
+                                }
+                                String s = lexicalForm(value);
+                                if (elementClass.isEnum()) {
+                                    elements.add(handleEnum(elementClass, s));
+                                } else {
+                                    if (!property.key.endsWith("AsUri")){
+                                        //Special case: For parameters like "assignee" there is the possibility that only a URI for "assigneeAsUri"
+                                        //is given. In this case there is no @type, but we can ignore that because we only need to parse the URI.
+                                        try {
+                                            elements.add(handleObject(reader, s, elementClass));
+                                        } catch (IOException exception) {
+                                            if (!exception.getMessage().equals(("Could not extract class of child object. ID: " + s))){
+                                                throw new IOException(exception.getMessage());
                                             }
-                                        } else {
-                                            //Standard case
-                                            list.add(handleObject(inputModel, s, Class.forName(typeName)));
                                         }
+                                    } else {
+                                        //Standard case
+                                        elements.add(handleObject(reader, s, elementClass));
                                     }
                                 }
-                                if (!sparqlParameterName.endsWith("AsUris")) {
-                                    //Special case: For parameters like "assignee" don't invoke the setter if the list is empty
-                                    //because this will set the additional property, e.g. "assigneeAsUri", to the empty list.
-                                    //As the "...AsUri" property
-                                    //is processed before the "regular" version, this could lead to information loss.
-                                    if (!list.isEmpty()) {
-                                        entry.getValue().invoke(returnObject, list);
-                                    }
-                                } else {
-                                    entry.getValue().invoke(returnObject, list);
+                            }
+                            if (!property.key.endsWith("AsUri")) {
+                                //Special case: For parameters like "assignee" don't invoke the setter if the list is empty
+                                //because this will set the additional property, e.g. "assigneeAsUri", to the empty list.
+                                //As the "...AsUri" property
+                                //is processed before the "regular" version, this could lead to information loss.
+                                if (!elements.isEmpty()) {
+                                    property.set(returnObject, new ArrayList<>(elements));
                                 }
+                            } else {
+                                property.set(returnObject, new ArrayList<>(elements));
                             }
                         }
+                        continue;
+                    }
+                    if (querySolution.contains(sparqlParameterName)) {
+                        String currentSparqlBinding = querySolution.get(sparqlParameterName).toString();
 
-                        //Not an ArrayList of objects expected, but rather one object
-                        else {
-                            //Our implementation of checking for primitives (i.e. also includes URLs, Strings, XMLGregorianCalendars, ...)
-                            if (isPrimitive(currentType)) {
+                        if (currentType.isEnum()) {
+                            property.set(returnObject, handleEnum(currentType, currentSparqlBinding));
+                            continue;
+                        }
+
+                        //There is a binding. Not an ArrayList of objects expected, but rather one object
+                        //Our implementation of checking for primitives (i.e. also includes URLs, Strings, XMLGregorianCalendars, ...)
+                        if (property.primitive) {
 
-                                Literal literal = null;
+                            Literal literal = null;
+                            try {
+                                literal = querySolution.getLiteral(sparqlParameterName);
+                            } catch (Exception ignored) {
+                            }
+                            if (sparqlParameterName.endsWith("AsUri")) {
                                 try {
-                                    literal = querySolution.getLiteral(sparqlParameterName);
-                                } catch (Exception ignored) {
-                                }
-                                if (sparqlParameterName.endsWith("AsUri")) {
-                                    try {
-                                        Class<?> clazz = methodMap.get(sparqlParameterName.substring(0, sparqlParameterName.length() - 5) + "AsObject").getParameterTypes()[0];
-                                        if (!clazz.isEnum()) {
-                                            Object o = handleObject(inputModel, currentSparqlBinding, clazz);
-                                        }
-                                    } catch (IOException exception) {
-                                        if (exception.getMessage().equals(("Could not extract class of child object. ID: " + currentSparqlBinding))){
-                                            entry.getValue().invoke(returnObject, handlePrimitive(currentType, literal, currentSparqlBinding));
-                                        }
+                                    Class<?> clazz = metadata.property(sparqlParameterName.substring(0, sparqlParameterName.length() - 5) + "AsObject").type;
+                                    if (!clazz.isEnum()) {
+                                        Object o = handleObject(reader, currentSparqlBinding, clazz);
+                                    }
+                                } catch (IOException exception) {
+                                    if (exception.getMessage().equals(("Could not extract class of child object. ID: " + currentSparqlBinding))){
+                                        property.set(returnObject, handlePrimitive(currentType, literal, currentSparqlBinding));
                                     }
-                                } else {
-                                    entry.getValue().invoke(returnObject, handlePrimitive(currentType, literal, currentSparqlBinding));
                                 }
                             } else {
-                                //Not a primitive object, but a complex sub-object. Recursively call this function to handle it
-                                if (!sparqlParameterName.endsWith("AsUri")){
-                                    //Special case: For parameters like "assignee" there is the possibility that only a URI for "assigneeAsUri"
-                                    //is given. In this case there is no @type, but we can ignore that because we only need to parse the URI.
-                                    try {
-                                        entry.getValue().invoke(returnObject, handleObject(inputModel, currentSparqlBinding, entry.getValue().getParameterTypes()[0]));
-                                    } catch (IOException exception) {
-                                        if (!exception.getMessage().equals(("Could not extract class of child object. ID: " + currentSparqlBinding))){
-                                            throw new IOException(exception.getMessage());
-                                        }
+                                property.set(returnObject, handlePrimitive(currentType, literal, currentSparqlBinding));
+                            }
+                        } else {
+                            //Not a primitive object, but a complex sub-object. Recursively call this function to handle it
+                            if (!sparqlParameterName.endsWith("AsUri")){
+                                //Special case: For parameters like "assignee" there is the possibility that only a URI for "assigneeAsUri"
+                                //is given. In this case there is no @type, but we can ignore that because we only need to parse the URI.
+                                try {
+                                    property.set(returnObject, handleObject(reader, currentSparqlBinding, currentType));
+                                } catch (IOException exception) {
+                                    if (!exception.getMessage().equals(("Could not extract class of child object. ID: " + currentSparqlBinding))){
+                                        throw new IOException(exception.getMessage());
                                     }
-                                } else {
-                                    //Standard case
-                                    entry.getValue().invoke(returnObject, handleObject(inputModel, currentSparqlBinding, entry.getValue().getParameterTypes()[0]));
                                 }
+                            } else {
+                                //Standard case
+                                property.set(returnObject, handleObject(reader, currentSparqlBinding, currentType));
                             }
                         }
                     }
 
                 }
             }
-            queryExecution.close();
 
             return returnObject;
-        } catch (NoSuchMethodException | NullPointerException | IllegalAccessException | InstantiationException | InvocationTargetException | NoSuchFieldException | URISyntaxException | DatatypeConfigurationException | ClassNotFoundException e) {
+        } catch (ReflectiveOperationException | NullPointerException | URISyntaxException e) {
             throw new IOException("Failed to instantiate desired class (" + targetClass.getName() + ")", e);
         }
     }
 
-    private String ignoreSuffix( String s ) {
-
-        if( s.endsWith("AsObject")) {
-            return s.replace("AsObject","");
-        } else if(s.endsWith("AsUri") ) {
-            return s.replace("AsUri","");
-        }
-        return s;
-    }
     /**
-     * This function wraps a URI with "<" ">", if needed, to avoid errors about "unknown namespace http(s):"
-     * @param input Input URI, possibly a prefixed value
-     * @return If this is a full URI, starting with http or https, the URI will be encapsulated in "<" ">"
+     * String value of a node of a list, like the str() function of SPARQL
+     * @param node A literal or URI resource
+     * @return the lexical form of a literal, without quotes, language tag or datatype, or the URI of a resource
      */
-    private String wrapIfUri(String input)
-    {
-        if(input.startsWith("http://") || input.startsWith("https://"))
-        {
-            return "<" + input + ">";
-        }
-        else {
-            return input;
-        }
+    private static String lexicalForm(RDFNode node) {
+        return node.isLiteral() ? node.asLiteral().getLexicalForm() : node.asResource().getURI();
     }
 
     private Object handleForeignLiteral(Literal literal) throws URISyntaxException {
@@ -686,7 +426,7 @@ class Parser {
         }
     }
 
-    private HashMap<String, Object> handleForeignNode(RDFNode node, HashMap<String, Object> map, Model model) throws IOException, URISyntaxException {
+    private HashMap<String, Object> handleForeignNode(RDFNode node, HashMap<String, Object> map, PropertyReader reader) throws IOException, URISyntaxException {
         //Make sure it is not a literal. If it were, we would not know the property name and could not add this to the map
         //Literals must be handled "one recursion step above"
         if(node.isLiteral())
@@ -694,18 +434,9 @@ class Parser {
             throw new IOException("Literal passed to handleForeignNode. Must be non-literal RDF node");
         }
 
-        //Run SPARQL query retrieving all information (only one hop!) about this node
-        String queryString = "SELECT ?s ?p ?o { BIND(<" + node.asNode().getURI() + "> AS ?s) . ?s ?p ?o . } ";
-        Query query = QueryFactory.create(queryString);
-        QueryExecution queryExecution = QueryExecutionFactory.create(query, model);
-        ResultSet resultSet = queryExecution.execSelect();
-
-
-
-        //Handle outgoing properties of this foreign node
-        while(resultSet.hasNext())
+        //Handle outgoing properties of this foreign node, retrieving all information (only one hop!) about this node
+        for (QuerySolution querySolution : reader.describe(node))
         {
-            QuerySolution querySolution = resultSet.next();
 
             String propertyUri = querySolution.get("p").toString();
 
@@ -742,7 +473,7 @@ class Parser {
                     logger.warn("Found self-reference on " + querySolution.getResource("s").toString() + " via predicate " + querySolution.getResource("p").toString() + " .");
                     continue;
                 }
-                HashMap<String, Object> subMap = handleForeignNode(querySolution.getResource("o"), new HashMap<>(), model);
+                HashMap<String, Object> subMap = handleForeignNode(querySolution.getResource("o"), new HashMap<>(), reader);
                 subMap.put("@id", querySolution.getResource("o").getURI());
                 if(map.containsKey(propertyUri))
                 {
@@ -753,40 +484,14 @@ class Parser {
                 }
             }
         }
-        queryExecution.close();
         return map;
     }
 
 
-    /**
-     * Utility function, used to obtain the field corresponding to a setter function
-     * @param targetClass Class object in which we search for a field
-     * @param fieldName Guessed name of the field to search for
-     * @return Field object matching the name (possibly with leading underscore)
-     * @throws NoSuchFieldException thrown, if no such field exists
-     */
-    private Field getFieldByName(Class<?> targetClass, String fieldName) throws NoSuchFieldException {
-        try {
-            return targetClass.getDeclaredField("_" + fieldName);
-        } catch (NoSuchFieldException e) {
-            try {
-                return targetClass.getDeclaredField(fieldName);
-            } catch (NoSuchFieldException e2) {
-                try {
-                    return targetClass.getDeclaredField("_" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1));
-                }
-                catch (NoSuchFieldException e3)
-                {
-                    throw new NoSuchFieldException("Failed to find field which is set by method " + fieldName);
-                }
-            }
-        }
-    }
-
     /**
      * Internal function to create a single enum object from a given desired class and a URL
      * @param enumClass The enum class
-     * @param url The URL of the enum value
+     * @param url The URL of the enum value, or its prefixed form (e.g. "idsc:EN")
      * @param <T> Enum class
      * @return Value of enumClass matching the input URL
      * @throws IOException thrown if no matching enum value could be found
@@ -795,16 +500,14 @@ class Parser {
         if (!enumClass.isEnum()) {
             throw new RuntimeException("Non-Enum class passed to handleEnum function.");
         }
-        T[] constants = enumClass.getEnumConstants();
-        for (T constant : constants) {
-            if (url.equals(constant.toString())) {
-                return constant;
-            }
+        Object match = ClassMetadata.enumConstants(enumClass).get(url);
+        if (match != null) {
+            return (T) match;
         }
-        for(T constant : constants) {
-            logger.info("Available enums are: " + constant.toString());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Available values of " + enumClass.getSimpleName() + " are: " + ClassMetadata.enumConstants(enumClass).keySet());
         }
-        throw new IOException("Failed to find matching enum value for " + url);
+        throw new IOException("Failed to find matching enum value for " + url + " in " + enumClass.getSimpleName());
     }
 
     /**
@@ -814,10 +517,9 @@ class Parser {
      * @param currentSparqlBinding Value as SPARQL Binding (can be null in some cases)
      * @return Object of type currentType
      * @throws URISyntaxException thrown, if currentType is URI, but the value cannot be parsed to a URI
-     * @throws DatatypeConfigurationException thrown, if currentType is XMLGregorianCalendar or Duration, but parsing fails
      * @throws IOException thrown, if no matching "simple class" could be found
      */
-    private Object handlePrimitive(Class<?> currentType, Literal literal, String currentSparqlBinding) throws URISyntaxException, DatatypeConfigurationException, IOException {
+    private Object handlePrimitive(Class<?> currentType, Literal literal, String currentSparqlBinding) throws URISyntaxException, IOException {
         //Java way of checking for primitives, i.e. int, char, float, double, ...
         if (currentType.isPrimitive()) {
             if (literal == null) {
@@ -858,7 +560,7 @@ class Parser {
         if (XMLGregorianCalendar.class.isAssignableFrom(currentType)) {
             //Try parsing this as dateTimeStamp (most specific). If seconds / timezone is missing, DatatypeFormatException will be thrown
             try {
-                return DatatypeFactory.newInstance().newXMLGregorianCalendar(GregorianCalendar.from(ZonedDateTime.parse(literal.getValue().toString())));
+                return XsdDateTimeHelper.parse(literal.getValue().toString());
             }
             catch (DatatypeFormatException | DateTimeParseException ignored)
             {
@@ -867,7 +569,7 @@ class Parser {
                     Date date = new SimpleDateFormat().parse(literal.getValue().toString());
                     GregorianCalendar calendar = new GregorianCalendar();
                     calendar.setTime(date);
-                    return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
+                    return XsdDateTimeHelper.datatypeFactory().newXMLGregorianCalendar(calendar);
                 }
                 catch (ParseException | DateTimeParseException | DatatypeFormatException e2)
                 {
@@ -901,12 +603,12 @@ class Parser {
 
         //byte[]
         if (byte[].class.isAssignableFrom(currentType)) {
-            return currentSparqlBinding.getBytes();
+            return currentSparqlBinding.getBytes(StandardCharsets.UTF_8);
         }
 
         //Duration
         if (Duration.class.isAssignableFrom(currentType)) {
-            return DatatypeFactory.newInstance().newDuration(currentSparqlBinding);
+            return XsdDateTimeHelper.datatypeFactory().newDuration(currentSparqlBinding);
         }
 
         //RdfResource
@@ -927,75 +629,6 @@ class Parser {
         throw new IOException("Unrecognized primitive type: " + currentType.getName());
     }
 
-    /**
-     * This list contains all primitive Java types
-     */
-    private final Map<String, Class<?>> builtInMap = new HashMap<>();
-    {
-        builtInMap.put("int", Integer.TYPE);
-        builtInMap.put("long", Long.TYPE);
-        builtInMap.put("double", Double.TYPE);
-        builtInMap.put("float", Float.TYPE);
-        builtInMap.put("bool", Boolean.TYPE);
-        builtInMap.put("char", Character.TYPE);
-        builtInMap.put("byte", Byte.TYPE);
-        builtInMap.put("void", Void.TYPE);
-        builtInMap.put("short", Short.TYPE);
-    }
-
-    private boolean isArrayListTypePrimitive(Type t) throws IOException {
-        String typeName = extractTypeNameFromList(t);
-
-        try {
-            //Do not try to call Class.forName(primitive) -- that would throw an exception
-            if (builtInMap.containsKey(typeName)) return true;
-            return isPrimitive(Class.forName(typeName));
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Unable to retrieve class from generic", e);
-        }
-    }
-
-    private String extractTypeNameFromList(Type t) throws IOException {
-        String typeName = t.getTypeName();
-        if (!typeName.startsWith("java.util.ArrayList<") && !typeName.startsWith("java.util.List<")) {
-            throw new IOException("Illegal argument encountered while interpreting type parameter");
-        }
-        //"<? extends XYZ>" or super instead of extends
-        if(typeName.contains("?"))
-        {
-            //last space is where we want to cut off (right after the "extends"), as well as removing the last closing braces
-            return typeName.substring(typeName.lastIndexOf(" ") + 1, typeName.length() - 1);
-        }
-        //No extends
-        else
-        {
-            return typeName.substring(typeName.indexOf("<") + 1, typeName.indexOf(">"));
-        }
-    }
-
-    private boolean isPrimitive(Class<?> input) throws IOException {
-        //Collections are not simple
-        if (Collection.class.isAssignableFrom(input)) {
-            throw new IOException("Encountered collection in isPrimitive. Use isArrayListTypePrimitive instead");
-        }
-
-        //check for: plain/typed literal, XMLGregorianCalendar, byte[], RdfResource
-        //covers int, long, short, float, double, boolean, byte
-        if (input.isPrimitive()) return true;
-
-        return (URI.class.isAssignableFrom(input) ||
-                String.class.isAssignableFrom(input) ||
-                XMLGregorianCalendar.class.isAssignableFrom(input) ||
-                TypedLiteral.class.isAssignableFrom(input) ||
-                BigInteger.class.isAssignableFrom(input) ||
-                BigDecimal.class.isAssignableFrom(input) ||
-                byte[].class.isAssignableFrom(input) ||
-                Duration.class.isAssignableFrom(input) ||
-                RdfResource.class.isAssignableFrom(input)) ||
-                Boolean.class.isAssignableFrom(input) ||
-                Long.class.isAssignableFrom(input);
-    }
-
     /**
      * Entry point to this class. Takes an RDF Model and a desired target class (can be an interface)
      * @param rdfModel RDF input to be parsed
@@ -1005,24 +638,22 @@ class Parser {
      * @throws IOException if the parsing of the message fails
      */
     <T> T parseMessage(Model rdfModel, Class<T> targetClass) throws IOException {
-        ArrayList<Class<?>> implementingClasses = getImplementingClasses(targetClass);
+        List<Class<?>> implementingClasses = TypeIndex.forClass(targetClass).implementingClasses;
 
         // Query to retrieve all instances in the input graph that have a class assignment
         // Assumption: if the class name (?type) is equal to the target class, this should be the
         // instance we actually want to parse
-        String queryString = "SELECT ?id ?type { ?id a ?type . }";
-        Query query = QueryFactory.create(queryString);
-        QueryExecution queryExecution = QueryExecutionFactory.create(query, rdfModel);
-        ResultSet resultSet = queryExecution.execSelect();
+        PropertyReader reader = createReader(rdfModel);
+        List<QuerySolution> typedResources = reader.typedResources();
 
-        if (!resultSet.hasNext()) {
+        if (typedResources.isEmpty()) {
             throw new IOException("Could not extract class from input message");
         }
 
         Map<String, Class<?>> returnCandidates = new HashMap<>();
+        Map<String, RDFNode> candidateNodes = new HashMap<>();
 
-        while (resultSet.hasNext()) {
-            QuerySolution solution = resultSet.nextSolution();
+        for (QuerySolution solution : typedResources) {
             String fullName = solution.get("type").toString();
             String className = fullName.substring(fullName.lastIndexOf('/') + 1);
 
@@ -1039,11 +670,11 @@ class Parser {
             for (Class<?> currentClass : implementingClasses) {
                 if (currentClass.getSimpleName().equals(Serializer.implementingClassesNamePrefix + className + Serializer.implementingClassesNameSuffix)) {
                     returnCandidates.put(solution.get("id").toString(), currentClass);
+                    candidateNodes.put(solution.get("id").toString(), solution.get("id"));
                 }
             }
             //if (returnCandidates.size() > 0) break;
         }
-        queryExecution.close();
 
         if (returnCandidates.size() == 0) {
             throw new IOException("Could not transform input to an appropriate implementing class for " + targetClass.getName());
@@ -1053,39 +684,57 @@ class Parser {
         //Check if there are several options available
         if(returnCandidates.size() > 1)
         {
-            String bestCandidateId = null;
-            Class<?> bestCandidateClass = null;
-            long bestNumRelations = -1L;
-            for(Map.Entry<String, Class<?>> entry : returnCandidates.entrySet())
-            {
-                String determineBestCandidateQueryString = "CONSTRUCT { ?s ?p ?o . ?o ?p2 ?o2 . ?o2 ?p3 ?o3 . ?o3 ?p4 ?o4 . ?o4 ?p5 ?o5 . }" +
-                        " WHERE {" +
-                        " BIND(<" + entry.getKey() + "> AS ?s). ?s ?p ?o ." +
-                        " OPTIONAL {?o ?p2 ?o2 . OPTIONAL {?o2 ?p3 ?o3 . OPTIONAL {?o3 ?p4 ?o4 . OPTIONAL {?o4 ?p5 ?o5 . } } } } }";
-                Query determineBestCandidateQuery = QueryFactory.create(determineBestCandidateQueryString);
-                QueryExecution determineBestCandidateQueryExecution = QueryExecutionFactory.create(determineBestCandidateQuery, rdfModel);
-                long graphSize = determineBestCandidateQueryExecution.execConstruct().size();
-                if(graphSize > bestNumRelations)
-                {
-                    bestNumRelations = graphSize;
-                    bestCandidateId = entry.getKey();
-                    bestCandidateClass = entry.getValue();
+            String bestCandidateId;
+            if (rootSelectionStrategy == RootSelectionStrategy.CONSTRUCT_QUERY) {
+                bestCandidateId = selectByConstructQuery(rdfModel, returnCandidates.keySet());
+            } else {
+                //Consider the candidates in the same order as the query based selection, so that ties are resolved identically
+                Map<String, RDFNode> orderedCandidates = new LinkedHashMap<>();
+                for (String candidateId : returnCandidates.keySet()) {
+                    orderedCandidates.put(candidateId, candidateNodes.get(candidateId));
                 }
-
-                determineBestCandidateQueryExecution.close();
-
+                bestCandidateId = new RootSelector(rdfModel).select(orderedCandidates);
             }
+            Class<?> bestCandidateClass = returnCandidates.get(bestCandidateId);
             logger.debug("The RDF graph contains multiple objects which can be parsed to " + targetClass.getSimpleName() + ". Determined " + bestCandidateId + " as best candidate.");
-            return (T) handleObject(rdfModel, bestCandidateId, bestCandidateClass);
+            return (T) handleObject(reader, bestCandidateId, bestCandidateClass);
         }
 
         //We only reach this spot, if there is exactly one return candidate. Let's return it
         Map.Entry<String, Class<?>> singularEntry = returnCandidates.entrySet().iterator().next();
-        return (T) handleObject(rdfModel, singularEntry.getKey(), singularEntry.getValue());
+        return (T) handleObject(reader, singularEntry.getKey(), singularEntry.getValue());
 
     }
 
 
+    /**
+     * Implementation of {@link RootSelectionStrategy#CONSTRUCT_QUERY}
+     * @param rdfModel The RDF graph
+     * @param candidateIds Ids of the candidates, in the order in which they are considered
+     * @return id of the candidate with the most statements within five hops. Ties are resolved in favour of the candidate which comes first
+     */
+    private String selectByConstructQuery(Model rdfModel, Collection<String> candidateIds) {
+        String bestCandidateId = null;
+        long bestNumRelations = -1L;
+        for(String candidateId : candidateIds)
+        {
+            String determineBestCandidateQueryString = "CONSTRUCT { ?s ?p ?o . ?o ?p2 ?o2 . ?o2 ?p3 ?o3 . ?o3 ?p4 ?o4 . ?o4 ?p5 ?o5 . }" +
+                    " WHERE {" +
+                    " BIND(<" + candidateId + "> AS ?s). ?s ?p ?o ." +
+                    " OPTIONAL {?o ?p2 ?o2 . OPTIONAL {?o2 ?p3 ?o3 . OPTIONAL {?o3 ?p4 ?o4 . OPTIONAL {?o4 ?p5 ?o5 . } } } } }";
+            Query determineBestCandidateQuery = QueryFactory.create(determineBestCandidateQueryString);
+            try (QueryExecution determineBestCandidateQueryExecution = QueryExecutionFactory.create(determineBestCandidateQuery, rdfModel)) {
+                long graphSize = determineBestCandidateQueryExecution.execConstruct().size();
+                if(graphSize > bestNumRelations)
+                {
+                    bestNumRelations = graphSize;
+                    bestCandidateId = candidateId;
+                }
+            }
+        }
+        return bestCandidateId;
+    }
+
     /**
      * Entry point to this class. Takes a message and a desired target class (can be an interface)
      * @param message Object to be parsed. Note that the name is misleading: One can also parse non-message IDS objects with this function
@@ -1099,6 +748,19 @@ class Parser {
         return parseMessage(model, targetClass);
     }
 
+    /**
+     * Entry point to this class for binary input, e.g. the body of an HTTP request
+     * @param message UTF-8 encoded JSON-LD. The stream is read to the end, but not closed
+     * @param targetClass Desired target class (something as abstract as "Message.class" is allowed)
+     * @param <T> Desired target class
+     * @return Object of desired target class, representing the values contained in input message
+     * @throws IOException if reading the stream or the parsing of the message fails
+     */
+    <T> T parseMessage(InputStream message, Class<T> targetClass) throws IOException {
+        Model model = readMessage(message);
+        return parseMessage(model, targetClass);
+    }
+
     /**
      * Reads a message into an Apache Jena model.
      *
@@ -1109,9 +771,10 @@ class Parser {
 
         Model targetModel = ModelFactory.createDefaultModel();
 
-        //Read incoming message to the same model
+        //Read incoming message to the same model. The characters are read directly, without encoding them in the platform charset first
+        //Remote contexts are resolved through the cache
         try {
-            RDFDataMgr.read(targetModel, new ByteArrayInputStream(message.getBytes()), RDFLanguages.JSONLD);
+            JsonLdContextCache.read(targetModel, message);
         }
         catch (RiotException e)
         {
@@ -1121,24 +784,26 @@ class Parser {
         return targetModel;
     }
 
-
     /**
-     * Get a list of all subclasses (by JsonSubTypes annotation) which can be instantiated
-     * @param someClass Input class of which implementable subclasses need to be found
-     * @return ArrayList of instantiable subclasses
+     * Reads a message into an Apache Jena model.
+     *
+     * @param message UTF-8 encoded message to be read
+     * @return The model of the message
      */
-    ArrayList<Class<?>> getImplementingClasses(Class<?> someClass) {
-        ArrayList<Class<?>> result = new ArrayList<>();
-        JsonSubTypes subTypeAnnotation = someClass.getAnnotation(JsonSubTypes.class);
-        if (subTypeAnnotation != null) {
-            JsonSubTypes.Type[] types = subTypeAnnotation.value();
-            for (JsonSubTypes.Type type : types) {
-                result.addAll(getImplementingClasses(type.value()));
-            }
+    private Model readMessage(InputStream message) throws IOException {
+
+        Model targetModel = ModelFactory.createDefaultModel();
+
+        //JSON-LD is always UTF-8, which is how Jena decodes the stream
+        try {
+            JsonLdContextCache.read(targetModel, message);
         }
-        if (!someClass.isInterface() && !Modifier.isAbstract(someClass.getModifiers()))
-            result.add(someClass);
-        return result;
+        catch (RiotException e)
+        {
+            throw new IOException("The message is no valid JSON-LD and therefore could not be parsed.", e);
+        }
+
+        return targetModel;
     }
 
 }
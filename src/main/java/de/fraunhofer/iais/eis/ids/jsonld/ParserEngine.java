@@ -0,0 +1,18 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+/**
+ * Strategies for reading the properties of an object from the RDF graph during deserialization
+ */
+public enum ParserEngine {
+
+    /**
+     * The properties of each object are retrieved by SPARQL queries, which are generated per object. This is the default
+     */
+    SPARQL,
+
+    /**
+     * The properties of each object are read directly from the Jena graph, without generating, parsing and planning queries.
+     * Produces the same objects and the same error messages as {@link #SPARQL}
+     */
+    GRAPH
+}
@@ -0,0 +1,89 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Description of a single settable property of a class, as needed to read its values from the RDF graph.
+ * Created once per class as part of the {@link ClassMetadata}
+ */
+final class PropertyMetadata {
+
+    /**
+     * Name of the property, derived from the setter (e.g. "title" for "setTitle"). Also used as SPARQL variable name
+     */
+    final String key;
+
+    /**
+     * Parameter type of the setter
+     */
+    final Class<?> type;
+
+    /**
+     * Whether the property may be absent, i.e. the field is not annotated with NotNull
+     */
+    final boolean nullable;
+
+    /**
+     * Whether the setter expects a collection, i.e. whether the property may have multiple values
+     */
+    final boolean collection;
+
+    /**
+     * Whether the setter expects a collection of TypedLiterals, whose language tags need to be retrieved as well
+     */
+    final boolean typedLiteralCollection;
+
+    /**
+     * Whether the values (or elements) are primitives in the sense of the parser, i.e. no complex sub-objects
+     */
+    final boolean primitive;
+
+    /**
+     * Element class of collection valued properties. Null for single valued properties
+     */
+    final Class<?> elementClass;
+
+    /**
+     * Whether the element class is a Java primitive
+     */
+    final boolean elementBuiltIn;
+
+    /**
+     * The predicate as written in the JsonAlias annotation, either as "prefix:name" or as full URI
+     */
+    final String predicate;
+
+    /**
+     * The setter, of type (Object,Object)void
+     */
+    private final MethodHandle setter;
+
+    PropertyMetadata(String key, MethodHandle setter, Class<?> type, boolean nullable, boolean collection, boolean typedLiteralCollection,
+                     boolean primitive, Class<?> elementClass, boolean elementBuiltIn, String predicate) {
+        this.key = key;
+        this.setter = setter;
+        this.type = type;
+        this.nullable = nullable;
+        this.collection = collection;
+        this.typedLiteralCollection = typedLiteralCollection;
+        this.primitive = primitive;
+        this.elementClass = elementClass;
+        this.elementBuiltIn = elementBuiltIn;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Invokes the setter
+     * @param target Object of which the property is set
+     * @param value New value of the property
+     * @throws InvocationTargetException thrown, if the setter fails
+     */
+    void set(Object target, Object value) throws InvocationTargetException {
+        try {
+            setter.invokeExact(target, value);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.RDFNode;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read access of the {@link Parser} to the RDF graph of a single input.
+ * Results are returned in the shape of the rows of the SPARQL queries the parser is built around,
+ * so that all engines share the code turning these rows into Java objects
+ */
+interface PropertyReader {
+
+    /**
+     * @param objectUri URI of an object of the graph
+     * @return all rdf:type values of the object
+     */
+    List<RDFNode> types(String objectUri);
+
+    /**
+     * Retrieves the values of the single valued properties of an object, bound to the key of the property.
+     * Collection valued properties are only checked for presence, if they are mandatory.
+     * Their values are retrieved by {@link #selectMultiValuedProperties(String, Class, Collection)}
+     * @param objectUri URI of the object
+     * @param targetClass Class of the object, which the properties belong to
+     * @param typeName Name of the class of the object as given by the JsonTypeName annotation. The object must have this rdf:type
+     * @param properties The properties to be retrieved
+     * @return no solution if the object has not the desired type or if a mandatory property is missing,
+     *         more than one solution if a single valued property has multiple values, one solution otherwise
+     */
+    List<QuerySolution> selectProperties(String objectUri, Class<?> targetClass, String typeName, Collection<PropertyMetadata> properties);
+
+    /**
+     * Retrieves all values of the collection valued properties of an object. The values are the nodes of the graph,
+     * so that literals keep their language tag and datatype
+     * @param objectUri URI of the object
+     * @param targetClass Class of the object, which the properties belong to
+     * @param properties The properties of the class. Single valued properties are ignored
+     * @return values by key of the property, in the order in which the graph yields them. Properties without values are absent
+     */
+    Map<String, List<RDFNode>> selectMultiValuedProperties(String objectUri, Class<?> targetClass, Collection<PropertyMetadata> properties);
+
+    /**
+     * Retrieves all statements about an object (as "p" and "o") which are neither rdf:type nor one of the given properties
+     * @param objectUri URI of the object
+     * @param targetClass Class of the object, which the properties belong to
+     * @param properties The known properties, which are excluded
+     * @return one solution per unknown statement
+     */
+    List<QuerySolution> selectOtherProperties(String objectUri, Class<?> targetClass, Collection<PropertyMetadata> properties);
+
+    /**
+     * @param objectUri URI of an object of the graph
+     * @param predicate Predicate as "prefix:name" or full URI
+     * @return whether the object has at least one value for the predicate
+     */
+    boolean hasProperty(String objectUri, String predicate);
+
+    /**
+     * Retrieves all statements of a node (as "s", "p" and "o"), which is one hop of the graph
+     * @param node A non-literal node
+     * @return one solution per statement
+     */
+    List<QuerySolution> describe(RDFNode node);
+
+    /**
+     * @return all typed resources of the graph (as "id" and "type")
+     */
+    List<QuerySolution> typedResources();
+}
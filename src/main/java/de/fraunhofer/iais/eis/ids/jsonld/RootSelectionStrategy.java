@@ -0,0 +1,20 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+/**
+ * Strategies for choosing the object to be returned during deserialization, if several objects of the RDF graph can be parsed to the target class
+ */
+public enum RootSelectionStrategy {
+
+    /**
+     * Candidates which are not referenced by any other node of the graph (i.e. the roots) are preferred.
+     * Among these, the candidate with the most statements within five hops wins. The statements are counted on an index of the graph,
+     * which is built once per input. This is the default
+     */
+    GRAPH_INDEX,
+
+    /**
+     * The candidate with the most statements within five hops wins, regardless of whether it is referenced by other nodes.
+     * The statements are collected by one CONSTRUCT query per candidate
+     */
+    CONSTRUCT_QUERY
+}
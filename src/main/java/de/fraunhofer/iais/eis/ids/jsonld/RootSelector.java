@@ -0,0 +1,82 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import org.apache.jena.rdf.model.*;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link RootSelectionStrategy#GRAPH_INDEX}. Indexes the statements of the graph by subject once,
+ * so that counting the statements around a candidate is a bounded breadth-first search instead of a query
+ */
+final class RootSelector {
+
+    /**
+     * Maximum distance of the subjects whose statements are counted. Corresponds to the five nested patterns of the CONSTRUCT query
+     */
+    private static final int MAX_DEPTH = 4;
+
+    private final Map<RDFNode, List<RDFNode>> objectsBySubject = new HashMap<>();
+
+    private final Map<RDFNode, Integer> inDegrees = new HashMap<>();
+
+    RootSelector(Model model) {
+        StmtIterator statements = model.listStatements();
+        while (statements.hasNext()) {
+            Statement statement = statements.next();
+            Resource subject = statement.getSubject();
+            RDFNode object = statement.getObject();
+            objectsBySubject.computeIfAbsent(subject, s -> new ArrayList<>()).add(object);
+            //Statements of a node about itself do not make it a child
+            if (!object.equals(subject)) {
+                inDegrees.merge(object, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Selects the best candidate. Ties are resolved in favour of the candidate which comes first
+     * @param candidates Ids of the candidates, mapped to their nodes, in the order in which they are considered
+     * @return id of the selected candidate
+     */
+    String select(Map<String, RDFNode> candidates) {
+        boolean anyRoot = candidates.values().stream().anyMatch(node -> !inDegrees.containsKey(node));
+        String bestCandidateId = null;
+        long bestNumRelations = -1L;
+        for (Map.Entry<String, RDFNode> entry : candidates.entrySet()) {
+            if (anyRoot && inDegrees.containsKey(entry.getValue())) {
+                continue;
+            }
+            long numRelations = countStatements(entry.getValue());
+            if (numRelations > bestNumRelations) {
+                bestNumRelations = numRelations;
+                bestCandidateId = entry.getKey();
+            }
+        }
+        return bestCandidateId;
+    }
+
+    /**
+     * @param start Node at which the search starts
+     * @return number of statements whose subject can be reached from the start node within {@link #MAX_DEPTH} hops
+     */
+    private long countStatements(RDFNode start) {
+        Set<RDFNode> visited = new HashSet<>();
+        visited.add(start);
+        List<RDFNode> frontier = Collections.singletonList(start);
+        long count = 0;
+        for (int depth = 0; depth <= MAX_DEPTH && !frontier.isEmpty(); depth++) {
+            List<RDFNode> next = new ArrayList<>();
+            for (RDFNode subject : frontier) {
+                List<RDFNode> objects = objectsBySubject.getOrDefault(subject, Collections.emptyList());
+                count += objects.size();
+                for (RDFNode object : objects) {
+                    if (visited.add(object)) {
+                        next.add(object);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return count;
+    }
+}
@@ -1,54 +1,65 @@
 package de.fraunhofer.iais.eis.ids.jsonld;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.JsonPreprocessor;
-import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.TypeNamePreprocessor;
-import de.fraunhofer.iais.eis.ids.jsonld.util.MixinHelper;
+import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.PreprocessorChain;
+import org.apache.jena.graph.Graph;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
 import org.apache.jena.riot.RDFLanguages;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.jena.riot.RDFWriterRegistry;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.graph.GraphFactory;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 public class Serializer {
 
-    private static final ObjectMapper mapper = new ObjectMapper();
-    private final List<JsonPreprocessor> preprocessors; //TODO: It seems like this list is never used...
-    private final Logger logger = LoggerFactory.getLogger(Serializer.class);
+    //Replaced as a whole by the setters, so that concurrent calls see either the old or the new configuration
+    private final AtomicReference<SerializerConfig> config;
 
     public static String implementingClassesNamePrefix = "";
     public static String implementingClassesNameSuffix = "Impl";
 
-    private static boolean charsetWarningPrinted = false;
-
+    /**
+     * Creates a Serializer with the shared default configuration
+     */
     public Serializer() {
-        mapper.setDefaultPropertyInclusion(JsonInclude.Include.NON_NULL);
-        mapper.setDefaultPropertyInclusion(JsonInclude.Include.NON_EMPTY);
-        mapper.enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
-        addIDSMixins();
-
-        preprocessors = new ArrayList<>();
-        this.addPreprocessor(new TypeNamePreprocessor());
+        this(SerializerConfig.defaults());
+    }
 
-        if(!Charset.defaultCharset().equals(StandardCharsets.UTF_8) && !charsetWarningPrinted)
-        {
-            charsetWarningPrinted = true;
-            logger.warn("Standard Charset is set to " + Charset.defaultCharset() + " - expecting " + StandardCharsets.UTF_8 + ". Some characters might not be displayed correctly.\nThis warning is only printed once");
+    /**
+     * Creates a Serializer, which starts with the given configuration. The setters of the Serializer only replace its own
+     * configuration, the given one remains unchanged and can be used for other Serializers
+     *
+     * @param config the initial configuration, e.g. {@link SerializerConfig#defaults()}
+     */
+    public Serializer(SerializerConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("The configuration of a Serializer must not be null");
         }
-
+        this.config = new AtomicReference<>(config);
     }
 
     /**
@@ -62,57 +73,273 @@ public class Serializer {
         return serialize(instance, RDFLanguages.JSONLD);
     }
 
-    //Synchronized is required for thread safety. Without it, context elements might be missing in case of multiple simultaneous calls to this function
-    public synchronized String serialize(Object instance, Lang format) throws IOException {
-        if (format != RDFLanguages.JSONLD && format != RDFLanguages.TURTLE && format != RDFLanguages.RDFXML) {
-            throw new IOException("RDFFormat " + format + " is currently not supported by the serializer.");
+    /**
+     * Serializes an object to the given RDF format. This method is thread-safe and may be called concurrently,
+     * as the @context of each call is collected separately
+     *
+     * @param instance the instance to be serialized
+     * @param format the RDF format, i.e. JSON-LD, Turtle, RDF/XML, N-Triples or N-Quads
+     * @return RDF serialization of the provided object graph
+     */
+    public String serialize(Object instance, Lang format) throws IOException {
+        checkFormat(format);
+        if (format == RDFLanguages.JSONLD) {
+            return (instance instanceof Collection)
+                    ? serializeCollection((Collection<?>) instance, false)
+                    : config.get().writer().writeValueAsString(instance);
         }
-        mapper.registerModule(new JsonLDModule());
-        String jsonLD = (instance instanceof Collection)
-                ? serializeCollection((Collection<?>) instance)
-                : mapper.writerWithDefaultPrettyPrinter().writeValueAsString(instance);
-        if (format == RDFLanguages.JSONLD) return jsonLD;
-        else return convertJsonLdToOtherRdfFormat(jsonLD, format);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        serialize(instance, os, format);
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
     }
 
-    private String serializeCollection(Collection<?> collection) throws IOException {
-        String lineSep = System.lineSeparator();
-        StringBuilder jsonLDBuilder = new StringBuilder();
+    /**
+     * Serializes an object (or a collection of objects) to the given RDF format and writes the result as UTF-8 to the stream.
+     * JSON-LD, N-Triples, N-Quads and compact Turtle are streamed to the sink without building the entire document in memory.
+     * The stream is flushed, but not closed
+     *
+     * @param instance the instance to be serialized
+     * @param out the sink to which the serialization is written
+     * @param format the RDF format, i.e. JSON-LD, Turtle, RDF/XML, N-Triples or N-Quads
+     */
+    public void serialize(Object instance, OutputStream out, Lang format) throws IOException {
+        checkFormat(format);
+        if (format == RDFLanguages.JSONLD) {
+            try (JsonGenerator gen = SerializerConfig.mapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+                gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                writeJsonLd(instance, gen);
+            }
+        } else if (StreamRDFWriter.registered(toRdfFormat(format))) {
+            StreamRDF stream = StreamRDFWriter.getWriterStream(out, toRdfFormat(format));
+            stream.start();
+            serialize(instance, stream);
+            stream.finish();
+            out.flush();
+        } else {
+            Graph graph = GraphFactory.createDefaultGraph();
+            StreamRDF stream = StreamRDFLib.graph(graph);
+            stream.start();
+            serialize(instance, stream);
+            stream.finish();
+            RDFDataMgr.write(out, graph, toRdfFormat(format));
+            out.flush();
+        }
+    }
 
-        if (collection.isEmpty()) {
-            jsonLDBuilder.append("[]");
+    /**
+     * Serializes an object (or a collection of objects) to the given RDF format and writes the result to the writer.
+     * As with {@link #serialize(Object, OutputStream, Lang)}, JSON-LD, N-Triples, N-Quads and compact Turtle are streamed to the sink
+     * without building the entire document in memory. The writer is flushed, but not closed
+     *
+     * @param instance the instance to be serialized
+     * @param out the sink to which the serialization is written
+     * @param format the RDF format, i.e. JSON-LD, Turtle, RDF/XML, N-Triples or N-Quads
+     */
+    public void serialize(Object instance, Writer out, Lang format) throws IOException {
+        checkFormat(format);
+        if (format == RDFLanguages.JSONLD) {
+            try (JsonGenerator gen = SerializerConfig.mapper().getFactory().createGenerator(out)) {
+                gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                writeJsonLd(instance, gen);
+            }
         } else {
-            jsonLDBuilder.append("[");
-            jsonLDBuilder.append(lineSep);
-            for (Object item : collection) {
-                jsonLDBuilder.append(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(item));
-                jsonLDBuilder.append(",");
-                jsonLDBuilder.append(lineSep);
+            //The RDF writers of Jena write bytes, which are decoded into the writer as they are written
+            try (OutputStream stream = new DecodingOutputStream(out)) {
+                serialize(instance, stream, format);
             }
-            int lastComma = jsonLDBuilder.lastIndexOf(",");
-            jsonLDBuilder.replace(lastComma, lastComma + 1, "");
-            jsonLDBuilder.append("]");
         }
-        jsonLDBuilder.append(lineSep);
+    }
+
+    /**
+     * Emits the RDF triples of an object (or a collection of objects) to a Jena stream, e.g. a graph or an RDF writer.
+     * The triples are derived from the same annotations as the JSON-LD serialization, but without running any JSON-LD
+     * algorithm. Blank nodes are labelled differently than by a JSON-LD parser. The caller is responsible for calling
+     * start and finish on the stream
+     *
+     * @param instance the instance to be serialized
+     * @param output the stream to which the triples (and the prefixes of the @context) are sent
+     */
+    public void serialize(Object instance, StreamRDF output) throws IOException {
+        TripleEmitter emitter = new TripleEmitter(output);
+        Iterator<?> items = (instance instanceof Collection)
+                ? ((Collection<?>) instance).iterator()
+                : Collections.singleton(instance).iterator();
+        ObjectWriter writer = config.get().writer();
+        while (items.hasNext()) {
+            TokenBuffer buffer = new TokenBuffer(SerializerConfig.mapper(), false);
+            writer.writeValue(buffer, items.next());
+            try (JsonParser parser = buffer.asParser()) {
+                emitter.emitTopLevel(parser);
+            }
+        }
+    }
+
+    private void checkFormat(Lang format) throws IOException {
+        if (format != RDFLanguages.JSONLD && format != RDFLanguages.TURTLE && format != RDFLanguages.RDFXML
+                && format != RDFLanguages.NTRIPLES && format != RDFLanguages.NQUADS) {
+            throw new IOException("RDFFormat " + format + " is currently not supported by the serializer.");
+        }
+    }
+
+    /**
+     * Serializes a collection of objects to one JSON-LD array
+     *
+     * @param items the objects to be serialized
+     * @param hoistContext if true, one shared @context is written at the top and the objects are wrapped into an @graph array.
+     *                     Otherwise, each object carries its own @context
+     * @return JSON-LD serialization of the objects
+     */
+    public String serializeCollection(Collection<?> items, boolean hoistContext) throws IOException {
+        StringWriter out = new StringWriter();
+        serializeCollection(items.iterator(), out, hoistContext);
+        return out.toString();
+    }
+
+    /**
+     * Streams a sequence of objects as one JSON-LD array to the sink. The objects are retrieved from the iterator one by one
+     * while they are written, so the sequence never needs to be materialized. The stream is flushed, but not closed
+     *
+     * @param items the objects to be serialized
+     * @param out the sink to which the JSON-LD is written as UTF-8
+     * @param hoistContext if true, one shared @context is written at the top and the objects are wrapped into an @graph array.
+     *                     Otherwise, each object carries its own @context
+     */
+    public void serializeCollection(Iterator<?> items, OutputStream out, boolean hoistContext) throws IOException {
+        try (JsonGenerator gen = SerializerConfig.mapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            config.get().writer().writeValue(gen, new JsonLDCollection(items, hoistContext));
+        }
+    }
+
+    /**
+     * Streams a sequence of objects as one JSON-LD array to the sink, see {@link #serializeCollection(Iterator, OutputStream, boolean)}.
+     * The writer is flushed, but not closed
+     */
+    public void serializeCollection(Iterator<?> items, Writer out, boolean hoistContext) throws IOException {
+        try (JsonGenerator gen = SerializerConfig.mapper().getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            config.get().writer().writeValue(gen, new JsonLDCollection(items, hoistContext));
+        }
+    }
+
+    /**
+     * Streams a sequence of objects as one JSON-LD array to the sink, see {@link #serializeCollection(Iterator, OutputStream, boolean)}.
+     * The stream of objects is consumed, but not closed
+     */
+    public void serializeCollection(Stream<?> items, OutputStream out, boolean hoistContext) throws IOException {
+        serializeCollection(items.iterator(), out, hoistContext);
+    }
+
+    /**
+     * Streams a sequence of objects as one JSON-LD array to the sink, see {@link #serializeCollection(Iterator, OutputStream, boolean)}.
+     * The stream of objects is consumed, but not closed
+     */
+    public void serializeCollection(Stream<?> items, Writer out, boolean hoistContext) throws IOException {
+        serializeCollection(items.iterator(), out, hoistContext);
+    }
+
+    /**
+     * Writes the JSON-LD representation of an object to the generator. A collection is written as JSON array,
+     * in which each element carries its own @context
+     *
+     * @param instance the instance or collection to be serialized
+     * @param gen the generator to which the JSON-LD is written
+     */
+    private void writeJsonLd(Object instance, JsonGenerator gen) throws IOException {
+        ObjectWriter writer = config.get().writer();
+        if (instance instanceof Collection) {
+            writer.writeValue(gen, new JsonLDCollection(((Collection<?>) instance).iterator(), false));
+        } else {
+            writer.writeValue(gen, instance);
+        }
+    }
+
+    /**
+     * Selects how the prefixes of the @context are collected. Both modes produce the same output
+     *
+     * @param contextCollectionMode {@link ContextCollectionMode#PRE_PASS} (default) or {@link ContextCollectionMode#SINGLE_PASS}
+     */
+    public void setContextCollectionMode(ContextCollectionMode contextCollectionMode) {
+        config.updateAndGet(current -> current.withContextCollectionMode(contextCollectionMode));
+    }
+
+    public ContextCollectionMode getContextCollectionMode() {
+        return config.get().getContextCollectionMode();
+    }
+
+    /**
+     * Selects the layout of the output of all serialization methods, including the conversion to Turtle and RDF/XML
+     *
+     * @param outputProfile {@link OutputProfile#PRETTY} (default) or {@link OutputProfile#COMPACT}
+     */
+    public void setOutputProfile(OutputProfile outputProfile) {
+        config.updateAndGet(current -> current.withOutputProfile(outputProfile));
+    }
 
-        return jsonLDBuilder.toString();
+    public OutputProfile getOutputProfile() {
+        return config.get().getOutputProfile();
+    }
+
+    /**
+     * Selects how the deserialization reads the properties of objects from the RDF graph. Both engines produce the same objects
+     *
+     * @param parserEngine {@link ParserEngine#SPARQL} (default) or {@link ParserEngine#GRAPH}
+     */
+    public void setParserEngine(ParserEngine parserEngine) {
+        config.updateAndGet(current -> current.withParserEngine(parserEngine));
+    }
+
+    public ParserEngine getParserEngine() {
+        return config.get().getParserEngine();
+    }
+
+    /**
+     * Selects how the deserialization chooses the returned object, if several objects of the input match the requested class
+     *
+     * @param rootSelectionStrategy {@link RootSelectionStrategy#GRAPH_INDEX} (default) or {@link RootSelectionStrategy#CONSTRUCT_QUERY}
+     */
+    public void setRootSelectionStrategy(RootSelectionStrategy rootSelectionStrategy) {
+        config.updateAndGet(current -> current.withRootSelectionStrategy(rootSelectionStrategy));
+    }
+
+    public RootSelectionStrategy getRootSelectionStrategy() {
+        return config.get().getRootSelectionStrategy();
+    }
+
+    /**
+     * @return the current configuration of this Serializer, which can be used to create further Serializers with the same settings
+     */
+    public SerializerConfig getConfig() {
+        return config.get();
+    }
+
+    /**
+     * Maps an RDF language to the Jena writer variant of the output profile
+     */
+    private RDFFormat toRdfFormat(Lang format) {
+        if (config.get().getOutputProfile() == OutputProfile.COMPACT) {
+            if (format == RDFLanguages.TURTLE) return RDFFormat.TURTLE_BLOCKS;
+            if (format == RDFLanguages.RDFXML) return RDFFormat.RDFXML_PLAIN;
+        }
+        return RDFWriterRegistry.defaultSerialization(format);
     }
 
     public String convertJsonLdToOtherRdfFormat(String jsonLd, Lang format) {
         Model model = ModelFactory.createDefaultModel();
-        RDFDataMgr.read(model, new ByteArrayInputStream(jsonLd.getBytes()), RDFLanguages.JSONLD);
+        JsonLdContextCache.read(model, jsonLd);
 
         ByteArrayOutputStream os = new ByteArrayOutputStream();
-        RDFDataMgr.write(os, model, format);
-        return os.toString();
+        RDFDataMgr.write(os, model, toRdfFormat(format));
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
     }
 
     public String serializePlainJson(Object instance) throws JsonProcessingException {
-        return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(instance);
+        return config.get().writer().writeValueAsString(instance);
     }
 
     /**
-     * Inverse method of "serialize"
+     * Inverse method of "serialize". The input is passed through the preprocessors first.
+     * This method is thread-safe and may be called concurrently (as long as the preprocessors are), as all calls share one stateless parser
      *
      * @param serialization JSON(-LD) string
      * @param valueType     class of top level type
@@ -120,7 +347,72 @@ public class Serializer {
      * @return an object representing the provided JSON(-LD) structure
      */
     public <T> T deserialize(String serialization, Class<T> valueType) throws IOException {
-        return new Parser().parseMessage(serialization, valueType);
+        SerializerConfig current = config.get();
+        return current.parser().parseMessage(current.preprocessorChain().process(serialization), valueType);
+    }
+
+    /**
+     * Inverse method of "serialize" for binary input, e.g. the body of an HTTP request. Unless preprocessors are added,
+     * this avoids decoding the input into a String
+     *
+     * @param serialization UTF-8 encoded JSON(-LD). The stream is read to the end, but not closed
+     * @param valueType     class of top level type
+     * @param <T>           deserialized type
+     * @return an object representing the provided JSON(-LD) structure
+     */
+    public <T> T deserialize(InputStream serialization, Class<T> valueType) throws IOException {
+        SerializerConfig current = config.get();
+        if (current.preprocessorChain().isEmpty()) {
+            return current.parser().parseMessage(serialization, valueType);
+        }
+        return current.parser().parseMessage(current.preprocessorChain().process(serialization), valueType);
+    }
+
+    /**
+     * Inverse method of "serialize" for binary input
+     *
+     * @param serialization UTF-8 encoded JSON(-LD)
+     * @param valueType     class of top level type
+     * @param <T>           deserialized type
+     * @return an object representing the provided JSON(-LD) structure
+     */
+    public <T> T deserialize(byte[] serialization, Class<T> valueType) throws IOException {
+        return deserialize(new ByteArrayInputStream(serialization), valueType);
+    }
+
+    /**
+     * Inverse method of "serialize" for binary input. The remaining bytes of the buffer are read, its position is not changed
+     *
+     * @param serialization UTF-8 encoded JSON(-LD)
+     * @param valueType     class of top level type
+     * @param <T>           deserialized type
+     * @return an object representing the provided JSON(-LD) structure
+     */
+    public <T> T deserialize(ByteBuffer serialization, Class<T> valueType) throws IOException {
+        ByteBuffer buffer = serialization.duplicate();
+        if (buffer.hasArray()) {
+            return deserialize(new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()), valueType);
+        }
+        //Direct or read-only buffer, which needs to be read through its own methods
+        return deserialize(new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.get(b, off, count);
+                return count;
+            }
+        }, valueType);
     }
 
     /**
@@ -132,29 +424,30 @@ public class Serializer {
      * @return an object representing the provided JSON(-LD) structure
      */
     public <T> T deserialize(Model rdfModel, Class<T> valueType) throws IOException {
-        return new Parser().parseMessage(rdfModel, valueType);
+        return config.get().parser().parseMessage(rdfModel, valueType);
     }
 
     /**
      * Allows to add further known namespaces to the message parser. Allows parsing to Java objects with JsonSubTypes annotations with other prefixes than "ids:".
+     * The namespaces are shared by all Serializers. This method is thread-safe and may be called while other threads serialize or parse
      * @param prefix Prefix to be added
      * @param namespaceUrl URL of the prefix
      */
     public static void addKnownNamespace(String prefix, String namespaceUrl)
     {
-        Parser.knownNamespaces.put(prefix, namespaceUrl);
-        JsonLDSerializer.contextItems.put(prefix, namespaceUrl);
+        NamespaceRegistry.register(prefix, namespaceUrl);
     }
 
     /**
-     * Method to add a preprocessor for deserialization.
+     * Method to add a preprocessor for deserialization. No preprocessors are active by default.
+     * Add a {@link de.fraunhofer.iais.eis.ids.jsonld.preprocessing.TypeNamePreprocessor} to read legacy messages without "ids:" prefixes
      * <p>
      * Important note: The preprocessors are executed in the same order they were added.
      *
      * @param preprocessor the preprocessor to add
      */
     public void addPreprocessor(JsonPreprocessor preprocessor) {
-        preprocessors.add(preprocessor);
+        config.updateAndGet(current -> current.withPreprocessor(preprocessor));
     }
 
     /**
@@ -176,11 +469,91 @@ public class Serializer {
      * @param preprocessor the preprocessor to remove
      */
     public void removePreprocessor(JsonPreprocessor preprocessor) {
-        preprocessors.remove(preprocessor);
+        config.updateAndGet(current -> current.withoutPreprocessor(preprocessor));
+    }
+
+    /**
+     * Enables the fused preprocessing mode, in which consecutive
+     * {@link de.fraunhofer.iais.eis.ids.jsonld.preprocessing.StreamingPreprocessor}s hand on their output tokens in memory,
+     * instead of each one parsing and writing the whole message as JSON. Disabled by default
+     *
+     * @param fused whether streaming preprocessors are fused
+     */
+    public void setFusedPreprocessing(boolean fused) {
+        config.updateAndGet(current -> current.withFusedPreprocessing(fused));
+    }
+
+    public boolean isFusedPreprocessing() {
+        return config.get().isFusedPreprocessing();
+    }
+
+    /**
+     * @return the time spent in each preprocessor, in the order of execution. Starts from zero whenever the preprocessors are changed
+     */
+    public List<PreprocessorChain.StageTiming> getPreprocessorTimings() {
+        return config.get().preprocessorChain().getTimings();
     }
 
-    private void addIDSMixins() {
-        Map<Class<?>, Class<?>> targetToMixinMap = MixinHelper.scanMixins();
-        targetToMixinMap.forEach(mapper::addMixIn);
+    /**
+     * Decodes UTF-8 bytes into a writer while they are written. Closing the stream flushes the writer, but does not close it
+     */
+    private static final class DecodingOutputStream extends OutputStream {
+
+        private final Writer out;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+
+        private DecodingOutputStream(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                //At most the last (incomplete) multi-byte sequence remains in the buffer after decoding
+                int count = Math.min(len, bytes.remaining());
+                bytes.put(b, off, count);
+                off += count;
+                len -= count;
+                decode(false);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            decode(true);
+            while (decoder.flush(chars).isOverflow()) {
+                writeChars();
+            }
+            writeChars();
+            out.flush();
+        }
+
+        private void decode(boolean endOfInput) throws IOException {
+            bytes.flip();
+            while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+                writeChars();
+            }
+            writeChars();
+            bytes.compact();
+        }
+
+        private void writeChars() throws IOException {
+            out.write(chars.array(), 0, chars.position());
+            chars.clear();
+        }
     }
 }
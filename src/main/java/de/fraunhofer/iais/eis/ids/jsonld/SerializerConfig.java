@@ -0,0 +1,209 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.JsonPreprocessor;
+import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.PreprocessorChain;
+import de.fraunhofer.iais.eis.ids.jsonld.util.MixinHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the settings of a {@link Serializer}, together with the objects derived from them (the ObjectWriter,
+ * the parser and the preprocessor chain).
+ * <p>
+ * The expensive setup, i.e. configuring the ObjectMapper with the IDS mixins and the JSON-LD module, is done once per JVM and
+ * shared by all configurations. Changing a setting returns a new configuration and leaves this one untouched, so a configuration
+ * can be shared between threads and Serializers, and creating a Serializer from it does not allocate anything else:
+ * <pre>
+ * SerializerConfig config = SerializerConfig.defaults().withOutputProfile(OutputProfile.COMPACT);
+ * Serializer serializer = config.newSerializer();
+ * </pre>
+ * Serializers sharing a configuration also share the timings of its preprocessors.
+ */
+public final class SerializerConfig {
+
+    /**
+     * The mapper is configured exactly once (inclusion rules, IDS mixins and the JSON-LD module) and then frozen into
+     * ObjectWriters. These are immutable and can be shared between threads and Serializer instances.
+     * Re-configuring the mapper at a later point in time would invalidate Jackson's serializer caches.
+     */
+    private static final ObjectMapper mapper = createMapper();
+    private static final ObjectWriter prettyWriter = mapper.writerWithDefaultPrettyPrinter();
+    private static final ObjectWriter compactWriter = mapper.writer();
+
+    private static final SerializerConfig defaults = new SerializerConfig(ContextCollectionMode.PRE_PASS, OutputProfile.PRETTY,
+            ParserEngine.SPARQL, RootSelectionStrategy.GRAPH_INDEX, Collections.emptyList(), false);
+
+    private final ContextCollectionMode contextCollectionMode;
+    private final OutputProfile outputProfile;
+    private final ParserEngine parserEngine;
+    private final RootSelectionStrategy rootSelectionStrategy;
+    private final List<JsonPreprocessor> preprocessors;
+    private final boolean fusedPreprocessing;
+
+    private final ObjectWriter writer;
+    private final Parser parser;
+    private final PreprocessorChain preprocessorChain;
+
+    private SerializerConfig(ContextCollectionMode contextCollectionMode, OutputProfile outputProfile, ParserEngine parserEngine,
+                             RootSelectionStrategy rootSelectionStrategy, List<JsonPreprocessor> preprocessors, boolean fusedPreprocessing) {
+        this.contextCollectionMode = contextCollectionMode;
+        this.outputProfile = outputProfile;
+        this.parserEngine = parserEngine;
+        this.rootSelectionStrategy = rootSelectionStrategy;
+        this.preprocessors = preprocessors;
+        this.fusedPreprocessing = fusedPreprocessing;
+        ObjectWriter profileWriter = outputProfile == OutputProfile.COMPACT ? compactWriter : prettyWriter;
+        writer = profileWriter.withAttribute(ContextCollectionMode.class, contextCollectionMode);
+        parser = new Parser(parserEngine, rootSelectionStrategy);
+        preprocessorChain = new PreprocessorChain(preprocessors, fusedPreprocessing);
+    }
+
+    /**
+     * @return the shared default configuration, as used by {@code new Serializer()}
+     */
+    public static SerializerConfig defaults() {
+        return defaults;
+    }
+
+    /**
+     * @return a new Serializer, which starts with this configuration
+     */
+    public Serializer newSerializer() {
+        return new Serializer(this);
+    }
+
+    public ContextCollectionMode getContextCollectionMode() {
+        return contextCollectionMode;
+    }
+
+    public OutputProfile getOutputProfile() {
+        return outputProfile;
+    }
+
+    public ParserEngine getParserEngine() {
+        return parserEngine;
+    }
+
+    public RootSelectionStrategy getRootSelectionStrategy() {
+        return rootSelectionStrategy;
+    }
+
+    /**
+     * @return unmodifiable list of the preprocessors, in the order of execution
+     */
+    public List<JsonPreprocessor> getPreprocessors() {
+        return preprocessors;
+    }
+
+    public boolean isFusedPreprocessing() {
+        return fusedPreprocessing;
+    }
+
+    /**
+     * @see Serializer#setContextCollectionMode(ContextCollectionMode)
+     */
+    public SerializerConfig withContextCollectionMode(ContextCollectionMode contextCollectionMode) {
+        if (contextCollectionMode == this.contextCollectionMode) {
+            return this;
+        }
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy, preprocessors, fusedPreprocessing);
+    }
+
+    /**
+     * @see Serializer#setOutputProfile(OutputProfile)
+     */
+    public SerializerConfig withOutputProfile(OutputProfile outputProfile) {
+        if (outputProfile == this.outputProfile) {
+            return this;
+        }
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy, preprocessors, fusedPreprocessing);
+    }
+
+    /**
+     * @see Serializer#setParserEngine(ParserEngine)
+     */
+    public SerializerConfig withParserEngine(ParserEngine parserEngine) {
+        if (parserEngine == this.parserEngine) {
+            return this;
+        }
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy, preprocessors, fusedPreprocessing);
+    }
+
+    /**
+     * @see Serializer#setRootSelectionStrategy(RootSelectionStrategy)
+     */
+    public SerializerConfig withRootSelectionStrategy(RootSelectionStrategy rootSelectionStrategy) {
+        if (rootSelectionStrategy == this.rootSelectionStrategy) {
+            return this;
+        }
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy, preprocessors, fusedPreprocessing);
+    }
+
+    /**
+     * @param preprocessor preprocessor, which is executed after the preprocessors of this configuration
+     * @see Serializer#addPreprocessor(JsonPreprocessor)
+     */
+    public SerializerConfig withPreprocessor(JsonPreprocessor preprocessor) {
+        List<JsonPreprocessor> extended = new ArrayList<>(preprocessors);
+        extended.add(preprocessor);
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy,
+                Collections.unmodifiableList(extended), fusedPreprocessing);
+    }
+
+    /**
+     * @param preprocessor preprocessor, of which the first occurrence is removed
+     * @see Serializer#removePreprocessor(JsonPreprocessor)
+     */
+    public SerializerConfig withoutPreprocessor(JsonPreprocessor preprocessor) {
+        if (!preprocessors.contains(preprocessor)) {
+            return this;
+        }
+        List<JsonPreprocessor> reduced = new ArrayList<>(preprocessors);
+        reduced.remove(preprocessor);
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy,
+                Collections.unmodifiableList(reduced), fusedPreprocessing);
+    }
+
+    /**
+     * @see Serializer#setFusedPreprocessing(boolean)
+     */
+    public SerializerConfig withFusedPreprocessing(boolean fusedPreprocessing) {
+        if (fusedPreprocessing == this.fusedPreprocessing) {
+            return this;
+        }
+        return new SerializerConfig(contextCollectionMode, outputProfile, parserEngine, rootSelectionStrategy, preprocessors, fusedPreprocessing);
+    }
+
+    static ObjectMapper mapper() {
+        return mapper;
+    }
+
+    ObjectWriter writer() {
+        return writer;
+    }
+
+    Parser parser() {
+        return parser;
+    }
+
+    PreprocessorChain preprocessorChain() {
+        return preprocessorChain;
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setDefaultPropertyInclusion(JsonInclude.Include.NON_EMPTY);
+        objectMapper.enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+        Map<Class<?>, Class<?>> targetToMixinMap = MixinHelper.scanMixins();
+        targetToMixinMap.forEach(objectMapper::addMixIn);
+        objectMapper.registerModule(new JsonLDModule());
+        return objectMapper;
+    }
+}
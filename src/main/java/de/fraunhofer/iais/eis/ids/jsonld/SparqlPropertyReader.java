@@ -0,0 +1,245 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link ParserEngine#SPARQL}, which evaluates generated SPARQL queries on the model.
+ * The queries are generated and parsed once per class (or predicate) with a variable as subject.
+ * For each object, the URI of the object is substituted for this variable in the parsed query
+ */
+final class SparqlPropertyReader implements PropertyReader {
+
+    /**
+     * Variable which is replaced by the URI of the object in all query templates
+     */
+    private static final Var SUBJECT = Var.alloc("_subject");
+
+    private static final Query TYPES_QUERY = template("SELECT ?type { ?_subject a ?type . }");
+
+    private static final Query DESCRIBE_QUERY = template("SELECT ?s ?p ?o { BIND(?_subject AS ?s) . ?s ?p ?o . } ");
+
+    private static final Query TYPED_RESOURCES_QUERY = template("SELECT ?id ?type { ?id a ?type . }");
+
+    //The following templates depend on the known namespaces, which are declared as prefixes. They are dropped whenever a namespace is added
+    private static final NamespaceRegistry.Cache<Class<?>, Query> propertiesQueries = new NamespaceRegistry.Cache<>();
+    private static final NamespaceRegistry.Cache<Class<?>, Query> multiValuedPropertiesQueries = new NamespaceRegistry.Cache<>();
+    private static final NamespaceRegistry.Cache<Class<?>, Query> otherPropertiesQueries = new NamespaceRegistry.Cache<>();
+    private static final NamespaceRegistry.Cache<String, Query> diagnosticQueries = new NamespaceRegistry.Cache<>();
+
+    private final Model model;
+
+    SparqlPropertyReader(Model model) {
+        this.model = model;
+    }
+
+    @Override
+    public List<RDFNode> types(String objectUri) {
+        List<RDFNode> types = new ArrayList<>();
+        for (QuerySolution solution : select(TYPES_QUERY, objectUri)) {
+            types.add(solution.get("type"));
+        }
+        return types;
+    }
+
+    @Override
+    public List<QuerySolution> selectProperties(String objectUri, Class<?> targetClass, String typeName, Collection<PropertyMetadata> properties) {
+        return select(propertiesQueries.get(targetClass, (c, namespaces) -> propertiesQuery(namespaces, typeName, properties)), objectUri);
+    }
+
+    private static Query propertiesQuery(NamespaceRegistry namespaces, String typeName, Collection<PropertyMetadata> properties) {
+        StringBuilder queryStringBuilder = new StringBuilder();
+        appendPrefixes(queryStringBuilder, namespaces);
+        queryStringBuilder.append("SELECT");
+        boolean anySingleValued = false;
+        for (PropertyMetadata property : properties) {
+            //Values of lists are retrieved by the multi-valued properties query, only select those properties which may occur once
+            if (!property.collection) {
+                queryStringBuilder.append(" ?").append(property.key);
+                anySingleValued = true;
+            }
+        }
+        if (!anySingleValued) {
+            //SELECT requires at least one projection. The solution only tells that the object matches
+            queryStringBuilder.append(" (true AS ?_match)");
+        }
+        //Start the "WHERE" part - Fuseki does not expect the "WHERE" keyword, but just an "{"
+        queryStringBuilder.append(" { ");
+
+        //Make sure that the object is of the correct type
+        //This is particularly relevant in case of all fields being optional -- then one could simply parse a random object
+        queryStringBuilder.append(" ?_subject a ").append(wrapIfUri(typeName)).append(". ");
+
+        for (PropertyMetadata property : properties) {
+            if (property.collection) {
+                //Mandatory lists need at least one value, but joining their values would multiply the solutions
+                if (!property.nullable) {
+                    queryStringBuilder.append(" FILTER EXISTS { ?_subject ").append(wrapIfUri(property.predicate)).append(" ?any . }");
+                }
+                continue;
+            }
+            //If it is "nullable", we need to make this optional
+            if (property.nullable) {
+                queryStringBuilder.append(" OPTIONAL {");
+            }
+            queryStringBuilder.append(" ?_subject ") //subject, substituted by the URI of the object
+                    .append(wrapIfUri(property.predicate))
+                    .append(" ?").append(property.key).append(" ."); //object
+            if (property.nullable) {
+                queryStringBuilder.append("} ");
+            }
+        }
+
+        queryStringBuilder.append(" } ");
+
+        return template(queryStringBuilder.toString());
+    }
+
+    @Override
+    public Map<String, List<RDFNode>> selectMultiValuedProperties(String objectUri, Class<?> targetClass, Collection<PropertyMetadata> properties) {
+        if (properties.stream().noneMatch(property -> property.collection)) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<RDFNode>> values = new HashMap<>();
+        for (QuerySolution solution : select(multiValuedPropertiesQueries.get(targetClass, (c, namespaces) -> multiValuedPropertiesQuery(namespaces, properties)), objectUri)) {
+            values.computeIfAbsent(solution.getLiteral("key").getString(), key -> new ArrayList<>()).add(solution.get("value"));
+        }
+        return values;
+    }
+
+    private static Query multiValuedPropertiesQuery(NamespaceRegistry namespaces, Collection<PropertyMetadata> properties) {
+        //One solution per value, marked with the key of the property. Several keys may share a predicate (e.g. "assignee" and "assigneeAsUri")
+        StringBuilder queryStringBuilder = new StringBuilder();
+        appendPrefixes(queryStringBuilder, namespaces);
+        queryStringBuilder.append("SELECT ?key ?value {");
+        boolean first = true;
+        for (PropertyMetadata property : properties) {
+            if (property.collection) {
+                if (!first) {
+                    queryStringBuilder.append(" UNION");
+                }
+                first = false;
+                queryStringBuilder.append(" { ?_subject ").append(wrapIfUri(property.predicate)).append(" ?value . BIND(\"")
+                        .append(property.key).append("\" AS ?key) }");
+            }
+        }
+        queryStringBuilder.append(" }");
+        return template(queryStringBuilder.toString());
+    }
+
+    @Override
+    public List<QuerySolution> selectOtherProperties(String objectUri, Class<?> targetClass, Collection<PropertyMetadata> properties) {
+        return select(otherPropertiesQueries.get(targetClass, (c, namespaces) -> otherPropertiesQuery(namespaces, properties)), objectUri);
+    }
+
+    private static Query otherPropertiesQuery(NamespaceRegistry namespaces, Collection<PropertyMetadata> properties) {
+        //Query for all unknown properties and their values
+        StringBuilder queryForOtherProperties = new StringBuilder();
+        queryForOtherProperties.append("PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n");
+        appendPrefixes(queryForOtherProperties, namespaces);
+
+        //Respect ALL properties and values
+        queryForOtherProperties.append(" SELECT ?p ?o {  ?_subject ?p ?o .\n");
+
+        //Exclude known properties
+        queryForOtherProperties.append("FILTER (?p NOT IN (rdf:type");
+        for (PropertyMetadata property : properties) {
+            queryForOtherProperties.append(", ").append(wrapIfUri(property.predicate));
+        }
+        queryForOtherProperties.append(")). } ");
+
+        return template(queryForOtherProperties.toString());
+    }
+
+    @Override
+    public boolean hasProperty(String objectUri, String predicate) {
+        Query query = diagnosticQueries.get(predicate, (p, namespaces) -> {
+            StringBuilder diagnosticString = new StringBuilder();
+            appendPrefixes(diagnosticString, namespaces);
+            diagnosticString.append("SELECT ?o { ?_subject ").append(wrapIfUri(p)).append(" ?o }");
+            return template(diagnosticString.toString());
+        });
+        return !select(query, objectUri).isEmpty();
+    }
+
+    @Override
+    public List<QuerySolution> describe(RDFNode node) {
+        //Run SPARQL query retrieving all information (only one hop!) about this node
+        return select(DESCRIBE_QUERY, node.asNode().getURI());
+    }
+
+    @Override
+    public List<QuerySolution> typedResources() {
+        return execute(TYPED_RESOURCES_QUERY);
+    }
+
+    /**
+     * Parses a query template. Templates are shared between threads and are never modified after this method returns
+     * @param queryString The query, possibly using ?_subject as placeholder of the object URI
+     * @return the parsed query
+     */
+    private static Query template(String queryString) {
+        Query query = QueryFactory.create(queryString);
+        //Initialize the lazily computed result variables before the query is shared
+        query.getResultVars();
+        return query;
+    }
+
+    /**
+     * Evaluates a query template for an object
+     * @param template The query template
+     * @param objectUri URI of the object, which is substituted for ?_subject
+     * @return all solutions
+     */
+    private List<QuerySolution> select(Query template, String objectUri) {
+        Map<Var, Node> substitution = Collections.singletonMap(SUBJECT, NodeFactory.createURI(objectUri));
+        return execute(QueryTransformOps.transform(template, substitution));
+    }
+
+    private List<QuerySolution> execute(Query query) {
+        try (QueryExecution queryExecution = QueryExecutionFactory.create(query, model)) {
+            ResultSet resultSet = queryExecution.execSelect();
+            List<QuerySolution> solutions = new ArrayList<>();
+            while (resultSet.hasNext()) {
+                solutions.add(resultSet.next());
+            }
+            return solutions;
+        }
+    }
+
+    /**
+     * Appends the PREFIX declarations of the ids namespace and all known namespaces
+     * @param queryStringBuilder Builder of the query
+     * @param namespaces Snapshot of the known namespaces
+     */
+    private static void appendPrefixes(StringBuilder queryStringBuilder, NamespaceRegistry namespaces) {
+        queryStringBuilder.append("PREFIX ids: <https://w3id.org/idsa/core/>\n");
+        for (Map.Entry<String, String> entry : namespaces.knownNamespaces().entrySet()) {
+            queryStringBuilder.append("PREFIX ").append(entry.getKey());
+            if (!entry.getKey().endsWith(":")) {
+                queryStringBuilder.append(":");
+            }
+            queryStringBuilder.append(" <").append(entry.getValue()).append(">\n");
+        }
+    }
+
+    /**
+     * This function wraps a URI with "<" ">", if needed, to avoid errors about "unknown namespace http(s):"
+     * @param input Input URI, possibly a prefixed value
+     * @return If this is a full URI, starting with http or https, the URI will be encapsulated in "<" ">"
+     */
+    static String wrapIfUri(String input) {
+        if (input.startsWith("http://") || input.startsWith("https://")) {
+            return "<" + input + ">";
+        } else {
+            return input;
+        }
+    }
+}
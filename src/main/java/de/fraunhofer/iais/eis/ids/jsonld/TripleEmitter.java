@@ -0,0 +1,279 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.vocabulary.RDF;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns the JSON-LD token stream which is produced by the {@link JsonLDSerializer} directly into RDF triples.
+ * Only the subset of JSON-LD which is written by this library is supported: one @context with prefix and term definitions
+ * at the top level, node objects with @id and @type, value objects with @value and @type or @language, and arrays.
+ * The resulting triples are the same as the ones of a JSON-LD parser (up to the labels of blank nodes), but none of the
+ * JSON-LD algorithms are required.
+ */
+final class TripleEmitter {
+
+    private final StreamRDF output;
+
+    private final DecimalFormat doubleFormat = new DecimalFormat("0.0###############E0", DecimalFormatSymbols.getInstance(Locale.US));
+
+    /**
+     * The @context of the current top level object
+     */
+    private final Map<String, String> context = new HashMap<>();
+
+    /**
+     * Blank nodes with explicit labels (i.e. "@id": "_:..."), which are scoped to the current top level object
+     */
+    private final Map<String, Node> blankNodes = new HashMap<>();
+
+    TripleEmitter(StreamRDF output) {
+        this.output = output;
+    }
+
+    /**
+     * Emits the triples of one top level JSON-LD value
+     * @param parser Parser positioned before the first token of the value
+     */
+    void emitTopLevel(JsonParser parser) throws IOException {
+        context.clear();
+        blankNodes.clear();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_OBJECT) {
+            readObject(parser);
+        } else if (token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == JsonToken.START_OBJECT) {
+                    readObject(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        //Scalar top level values do not describe any triples
+    }
+
+    /**
+     * Reads a node object or a value object. The triples of a node are only emitted when the object is complete,
+     * as the @id is not necessarily its first property
+     * @param parser Parser positioned at the START_OBJECT token
+     * @return the node representing the object, or null if it is a value object without value
+     */
+    private Node readObject(JsonParser parser) throws IOException {
+        String id = null;
+        List<String> types = new ArrayList<>();
+        boolean isValueObject = false;
+        JsonToken valueToken = null;
+        String value = null;
+        String language = null;
+        List<Node> predicates = new ArrayList<>();
+        List<Node> objects = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (key) {
+                case "@context":
+                    readContext(parser);
+                    break;
+                case "@id":
+                    id = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    parser.skipChildren();
+                    break;
+                case "@type":
+                    readTypes(parser, types);
+                    break;
+                case "@value":
+                    isValueObject = true;
+                    valueToken = token;
+                    value = token.isScalarValue() ? scalarText(parser) : null;
+                    parser.skipChildren();
+                    break;
+                case "@language":
+                    language = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                default:
+                    String predicate = key.startsWith("@") ? null : expand(key, true);
+                    if (predicate == null) {
+                        parser.skipChildren();
+                    } else {
+                        readValues(parser, NodeFactory.createURI(predicate), predicates, objects);
+                    }
+            }
+        }
+
+        if (isValueObject) {
+            return createLiteral(valueToken, value, types.isEmpty() ? null : expandType(types.get(0)), language);
+        }
+        Node subject = createSubject(id);
+        if (subject == null) {
+            //Like a JSON-LD processor, drop nodes with relative IRIs
+            return null;
+        }
+        for (String type : types) {
+            String typeIri = expandType(type);
+            if (isAbsolute(typeIri)) {
+                output.triple(Triple.create(subject, RDF.Nodes.type, NodeFactory.createURI(typeIri)));
+            }
+        }
+        for (int i = 0; i < predicates.size(); i++) {
+            output.triple(Triple.create(subject, predicates.get(i), objects.get(i)));
+        }
+        return subject;
+    }
+
+    private Node createSubject(String id) {
+        if (id == null) {
+            return NodeFactory.createBlankNode();
+        }
+        if (id.startsWith("_:")) {
+            return blankNodes.computeIfAbsent(id, label -> NodeFactory.createBlankNode());
+        }
+        String iri = expand(id, false);
+        return isAbsolute(iri) ? NodeFactory.createURI(iri) : null;
+    }
+
+    private static boolean isAbsolute(String iri) {
+        return iri.indexOf(':') > 0;
+    }
+
+    /**
+     * Reads the value(s) of a property. Nested arrays are flattened
+     */
+    private void readValues(JsonParser parser, Node predicate, List<Node> predicates, List<Node> objects) throws IOException {
+        if (parser.currentToken() == JsonToken.START_ARRAY) {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                readValues(parser, predicate, predicates, objects);
+            }
+            return;
+        }
+        Node object = parser.currentToken() == JsonToken.START_OBJECT
+                ? readObject(parser)
+                : createLiteral(parser.currentToken(), scalarText(parser), null, null);
+        if (object != null) {
+            predicates.add(predicate);
+            objects.add(object);
+        }
+    }
+
+    private void readContext(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            //Remote contexts are never written by this library
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String term = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                String iri = parser.getText();
+                context.put(term, iri);
+                if (iri.endsWith("/") || iri.endsWith("#")) {
+                    output.prefix(term, iri);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readTypes(JsonParser parser, List<String> types) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            types.add(parser.getText());
+        } else if (parser.currentToken() == JsonToken.START_ARRAY) {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                    types.add(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private String scalarText(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            Object embedded = parser.getEmbeddedObject();
+            return embedded instanceof byte[] ? Base64Variants.getDefaultVariant().encode((byte[]) embedded) : String.valueOf(embedded);
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Creates a literal following the JSON-LD to RDF conversion rules for native JSON values
+     * @return the literal, or null for JSON null values
+     */
+    private Node createLiteral(JsonToken token, String lexicalForm, String datatype, String language) {
+        if (token == null || lexicalForm == null || token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        switch (token) {
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return typedLiteral(lexicalForm, datatype != null ? datatype : XSDDatatype.XSDboolean.getURI());
+            case VALUE_NUMBER_INT:
+                if (XSDDatatype.XSDdouble.getURI().equals(datatype)) {
+                    return typedLiteral(doubleFormat.format(Double.parseDouble(lexicalForm)), datatype);
+                }
+                return typedLiteral(lexicalForm, datatype != null ? datatype : XSDDatatype.XSDinteger.getURI());
+            case VALUE_NUMBER_FLOAT:
+                return typedLiteral(doubleFormat.format(Double.parseDouble(lexicalForm)), datatype != null ? datatype : XSDDatatype.XSDdouble.getURI());
+            default:
+                if (datatype != null) {
+                    return typedLiteral(lexicalForm, datatype);
+                }
+                if (language != null) {
+                    return NodeFactory.createLiteral(lexicalForm, language.toLowerCase(Locale.ROOT));
+                }
+                return NodeFactory.createLiteral(lexicalForm);
+        }
+    }
+
+    private static Node typedLiteral(String lexicalForm, String datatype) {
+        return NodeFactory.createLiteral(lexicalForm, TypeMapper.getInstance().getSafeTypeByName(datatype));
+    }
+
+    private String expandType(String type) {
+        String expanded = expand(type, true);
+        return expanded != null ? expanded : type;
+    }
+
+    /**
+     * Expands a term or compact IRI to an absolute IRI, using the @context of the current top level object
+     * @param value term, compact IRI or absolute IRI
+     * @param vocab whether terms may be used, i.e. whether the value is a property or type rather than an @id
+     * @return the expanded IRI, or null if the value is a property which is not defined by the context
+     */
+    private String expand(String value, boolean vocab) {
+        if (vocab && context.containsKey(value)) {
+            return expand(context.get(value), false);
+        }
+        int colon = value.indexOf(':');
+        if (colon < 0) {
+            return vocab ? null : value;
+        }
+        String prefix = value.substring(0, colon);
+        String suffix = value.substring(colon + 1);
+        if (suffix.startsWith("//") || !context.containsKey(prefix)) {
+            return value;
+        }
+        return context.get(prefix) + suffix;
+    }
+}
@@ -0,0 +1,111 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Resolves the rdf:type of an object to the instantiable class, if the parser only knows an interface or abstract class.
+ * Built once per target class from the JsonSubTypes annotations, and cached
+ */
+final class TypeIndex {
+
+    private static final NamespaceRegistry.Cache<Class<?>, TypeIndex> cache = new NamespaceRegistry.Cache<>();
+
+    /**
+     * All instantiable subclasses of the target class, in the order of the JsonSubTypes annotations
+     */
+    final List<Class<?>> implementingClasses;
+
+    /**
+     * Classes by the full IRI of their JsonTypeName, expanded with the ids namespace and the known namespaces
+     */
+    private final Map<String, Class<?>> classesByIri = new HashMap<>();
+
+    /**
+     * Classes by their simple name and by the simple name without the implementing class prefix and suffix.
+     * Fallback for types which do not match a JsonTypeName, e.g. due to an unknown namespace
+     */
+    private final Map<String, Class<?>> classesByLocalName = new HashMap<>();
+
+    //Serializer.implementingClassesNamePrefix and -Suffix are public fields, so the index needs to check whether they changed
+    private final String namePrefix;
+    private final String nameSuffix;
+
+    private TypeIndex(Class<?> targetClass, NamespaceRegistry namespaces, String namePrefix, String nameSuffix) {
+        this.namePrefix = namePrefix;
+        this.nameSuffix = nameSuffix;
+        List<Class<?>> classes = new ArrayList<>();
+        collectImplementingClasses(targetClass, classes);
+        implementingClasses = Collections.unmodifiableList(classes);
+
+        //In case of multiple classes with the same name, the first one is used, as before
+        for (Class<?> implementingClass : classes) {
+            JsonTypeName typeName = implementingClass.getAnnotation(JsonTypeName.class);
+            if (typeName != null) {
+                String iri = namespaces.expand(typeName.value());
+                if (iri != null) {
+                    classesByIri.putIfAbsent(iri, implementingClass);
+                }
+            }
+            String simpleName = implementingClass.getSimpleName();
+            classesByLocalName.putIfAbsent(simpleName, implementingClass);
+            if (simpleName.startsWith(namePrefix) && simpleName.endsWith(nameSuffix) && simpleName.length() >= namePrefix.length() + nameSuffix.length()) {
+                classesByLocalName.putIfAbsent(simpleName.substring(namePrefix.length(), simpleName.length() - nameSuffix.length()), implementingClass);
+            }
+        }
+    }
+
+    /**
+     * @param targetClass Interface, abstract or instantiable class
+     * @return the cached index of the class for the current namespaces, or a new one
+     */
+    static TypeIndex forClass(Class<?> targetClass) {
+        String namePrefix = Serializer.implementingClassesNamePrefix;
+        String nameSuffix = Serializer.implementingClassesNameSuffix;
+        NamespaceRegistry namespaces = NamespaceRegistry.current();
+        TypeIndex index = cache.get(targetClass, namespaces);
+        if (index == null || !index.namePrefix.equals(namePrefix) || !index.nameSuffix.equals(nameSuffix)) {
+            index = new TypeIndex(targetClass, namespaces, namePrefix, nameSuffix);
+            cache.put(targetClass, namespaces, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param typeIri Full IRI of an rdf:type
+     * @return the implementing class of this type, or null if there is none
+     */
+    Class<?> resolve(String typeIri) {
+        Class<?> implementingClass = classesByIri.get(typeIri);
+        if (implementingClass != null) {
+            return implementingClass;
+        }
+        //Expected URI is something like https://w3id.org/idsa/core/ClassName (and we want ClassName)
+        String className = typeIri.substring(typeIri.lastIndexOf('/') + 1);
+
+        //Some namespaces use "#" instead of "/"
+        if (className.contains("#")) {
+            className = className.substring(className.lastIndexOf("#") + 1);
+        }
+        return classesByLocalName.get(className);
+    }
+
+    /**
+     * Collects all subclasses (by JsonSubTypes annotation) which can be instantiated
+     * @param someClass Input class of which implementable subclasses need to be found
+     * @param result List to which the instantiable subclasses are added
+     */
+    private static void collectImplementingClasses(Class<?> someClass, List<Class<?>> result) {
+        JsonSubTypes subTypeAnnotation = someClass.getAnnotation(JsonSubTypes.class);
+        if (subTypeAnnotation != null) {
+            for (JsonSubTypes.Type type : subTypeAnnotation.value()) {
+                collectImplementingClasses(type.value(), result);
+            }
+        }
+        if (!someClass.isInterface() && !Modifier.isAbstract(someClass.getModifiers()))
+            result.add(someClass);
+    }
+}
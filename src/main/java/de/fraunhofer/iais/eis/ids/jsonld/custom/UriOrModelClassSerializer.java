@@ -17,15 +17,19 @@ public class UriOrModelClassSerializer extends StdSerializer<UriOrModelClass> {
         super(clazz);
     }
 
+    /**
+     * Nested values are written with the provider of the enclosing call, not via the generator's codec.
+     * The codec would start a new serialization call, which does not know that it is nested and would emit another @context
+     */
     @Override
     public void serialize(UriOrModelClass uom, JsonGenerator jsonGenerator, SerializerProvider serializerProvider) throws IOException {
 
         if (uom.hasObject()) {
-            jsonGenerator.writeObject(uom.getObject());
+            serializerProvider.defaultSerializeValue(uom.getObject(), jsonGenerator);
         } else if (uom.hasObjectList()) {
             jsonGenerator.writeStartArray();
             for (Object o : uom.getObjectList()) {
-                jsonGenerator.writeObject(o);
+                serializerProvider.defaultSerializeValue(o, jsonGenerator);
             }
             jsonGenerator.writeEndArray();
         } else {
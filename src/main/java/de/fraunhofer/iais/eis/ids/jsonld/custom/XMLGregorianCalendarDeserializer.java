@@ -3,13 +3,10 @@ package de.fraunhofer.iais.eis.ids.jsonld.custom;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import de.fraunhofer.iais.eis.ids.jsonld.util.XsdDateTimeHelper;
 
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.io.IOException;
-import java.time.ZonedDateTime;
-import java.util.GregorianCalendar;
 
 public class XMLGregorianCalendarDeserializer extends StdDeserializer<XMLGregorianCalendar> {
 
@@ -23,12 +20,6 @@ public class XMLGregorianCalendarDeserializer extends StdDeserializer<XMLGregori
 
     @Override
     public XMLGregorianCalendar deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-        XMLGregorianCalendar xgc = null;
-        try {
-            xgc = DatatypeFactory.newInstance().newXMLGregorianCalendar(GregorianCalendar.from(ZonedDateTime.parse(p.getValueAsString())));
-        } catch (DatatypeConfigurationException e) {
-            e.printStackTrace();
-        }
-        return xgc;
+        return XsdDateTimeHelper.parse(p.getValueAsString());
     }
 }
@@ -3,10 +3,10 @@ package de.fraunhofer.iais.eis.ids.jsonld.custom;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import de.fraunhofer.iais.eis.ids.jsonld.util.XsdDateTimeHelper;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 
 public class XMLGregorianCalendarSerializer extends StdSerializer<XMLGregorianCalendar> {
 
@@ -20,14 +20,9 @@ public class XMLGregorianCalendarSerializer extends StdSerializer<XMLGregorianCa
 
     @Override
     public void serialize(XMLGregorianCalendar value, JsonGenerator gen, SerializerProvider provider) throws IOException {
-        SimpleDateFormat xsdDateTimeStampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-        xsdDateTimeStampFormat.setCalendar(value.toGregorianCalendar());
-        String xsdDateTimeStampFormatted = xsdDateTimeStampFormat.format(value.toGregorianCalendar().getTime());
-        //String serializedCalendar = value.toGregorianCalendar().toZonedDateTime().toString();
-        //serializedCalendar = serializedCalendar.substring(0, serializedCalendar.indexOf("[")); // remove [GMT+...] appendix
         gen.writeStartObject();
-        gen.writeStringField("@value", xsdDateTimeStampFormatted);
-        gen.writeStringField("@type", "http://www.w3.org/2001/XMLSchema#dateTimeStamp");
+        gen.writeStringField("@value", XsdDateTimeHelper.format(value));
+        gen.writeStringField("@type", XsdDateTimeHelper.XSD_DATE_TIME_STAMP);
         gen.writeEndObject();
 
     }
@@ -1,18 +1,17 @@
 package de.fraunhofer.iais.eis.ids.jsonld.preprocessing;
 
 
+import de.fraunhofer.iais.eis.ids.jsonld.JsonLdContextCache;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RDFLanguages;
 
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 /**
  * basic implementation of {@code JsonPreprocessor} that encapsulates validation.
- * By default, validation is disabled for performance reasons (@context has to be downloaded each time).
+ * By default, validation is disabled for performance reasons. Remote contexts are resolved through the {@link JsonLdContextCache},
+ * so that they are downloaded at most once (or never, if they are preloaded).
  */
 public abstract class BasePreprocessor implements JsonPreprocessor {
 
@@ -23,16 +22,28 @@ public abstract class BasePreprocessor implements JsonPreprocessor {
     public final String preprocess(String input) throws IOException {
         String result = preprocess_impl(input);
         if(validate) {
-            Model m = ModelFactory.createDefaultModel();
-            RDFDataMgr.read(m, new ByteArrayInputStream(result.getBytes()), RDFLanguages.JSONLD);
+            validate(result);
         }
         return result;
     }
 
+    /**
+     * checks that the JSON-LD can be read into an RDF graph
+     * @param jsonLd JSON-LD to validate
+     */
+    static void validate(String jsonLd) {
+        Model m = ModelFactory.createDefaultModel();
+        JsonLdContextCache.read(m, jsonLd);
+    }
+
     abstract String preprocess_impl(String input) throws IOException;
 
     @Override
     public void enableRDFValidation(boolean validate) {
         this.validate = validate;
     }
+
+    public boolean isRDFValidationEnabled() {
+        return validate;
+    }
 }
@@ -0,0 +1,194 @@
+package de.fraunhofer.iais.eis.ids.jsonld.preprocessing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Immutable sequence of {@code JsonPreprocessor}s, which are executed in order on every message before it is deserialized.
+ * <p>
+ * In fused mode, the tokens produced by a {@link StreamingPreprocessor} are handed on in memory to the next one, instead of being
+ * re-serialized to JSON and parsed again: the message is parsed once, and only the result of the last one is written as JSON.
+ * Each preprocessor still runs over the whole message, and the intermediate result is held in a token buffer.
+ * <p>
+ * The time spent in each preprocessor is accumulated (see {@link #getTimings()}) and logged on debug level.
+ * In fused mode, parsing the message counts towards the first preprocessor of the pass, and writing it towards the last one.
+ * The chain is thread-safe, if its preprocessors are.
+ */
+public final class PreprocessorChain {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreprocessorChain.class);
+
+    //Streams passed to the chain are not closed, as with the other deserialize methods
+    private static final JsonFactory factory = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private final List<JsonPreprocessor> preprocessors;
+    private final List<StageTiming> timings;
+    private final boolean fused;
+
+    /**
+     * @param preprocessors Preprocessors in the order of execution. The list is copied
+     * @param fused Whether consecutive streaming preprocessors hand on their tokens in memory instead of re-serializing them
+     */
+    public PreprocessorChain(List<JsonPreprocessor> preprocessors, boolean fused) {
+        this.preprocessors = Collections.unmodifiableList(new ArrayList<>(preprocessors));
+        this.fused = fused;
+        List<StageTiming> stageTimings = new ArrayList<>();
+        for (JsonPreprocessor preprocessor : this.preprocessors) {
+            stageTimings.add(new StageTiming(preprocessor));
+        }
+        timings = Collections.unmodifiableList(stageTimings);
+    }
+
+    public boolean isEmpty() {
+        return preprocessors.isEmpty();
+    }
+
+    public boolean isFused() {
+        return fused;
+    }
+
+    /**
+     * @return the accumulated timings of the preprocessors, in the order of execution
+     */
+    public List<StageTiming> getTimings() {
+        return timings;
+    }
+
+    /**
+     * Runs all preprocessors
+     * @param input JSON-LD message
+     * @return the result of the last preprocessor, or the input, if the chain is empty
+     */
+    public String process(String input) throws IOException {
+        return process(input, 0);
+    }
+
+    /**
+     * Runs all preprocessors
+     * @param input UTF-8 encoded JSON-LD message. The stream is not closed
+     * @return the result of the last preprocessor, or the decoded input, if the chain is empty
+     */
+    public String process(InputStream input) throws IOException {
+        int end = endOfFusedPass(0);
+        if (end > 1) {
+            //The first pass parses the stream directly, without decoding it into a String first
+            return process(processFused(factory.createParser(input), 0, end), end);
+        }
+        return process(new String(input.readAllBytes(), StandardCharsets.UTF_8), 0);
+    }
+
+    private String process(String input, int from) throws IOException {
+        String result = input;
+        int i = from;
+        while (i < preprocessors.size()) {
+            int end = endOfFusedPass(i);
+            if (end > i + 1) {
+                result = processFused(factory.createParser(result), i, end);
+                i = end;
+            } else {
+                long start = System.nanoTime();
+                result = preprocessors.get(i).preprocess(result);
+                record(i, start);
+                i++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the preprocessors from index "from" (inclusive) to "to" (exclusive), which all need to be streaming preprocessors.
+     * The message is parsed and written once, the results in between are buffered as tokens
+     */
+    private String processFused(JsonParser source, int from, int to) throws IOException {
+        StringWriter output = new StringWriter();
+        boolean validate = false;
+        try (JsonParser ignored = source) {
+            JsonParser input = source;
+            for (int i = from; i < to; i++) {
+                StreamingPreprocessor preprocessor = (StreamingPreprocessor) preprocessors.get(i);
+                validate |= preprocessor.isRDFValidationEnabled();
+                long start = System.nanoTime();
+                if (i < to - 1) {
+                    TokenBuffer tokens = new TokenBuffer(input);
+                    preprocessor.preprocess(input, tokens);
+                    input = tokens.asParser();
+                } else {
+                    try (JsonGenerator generator = factory.createGenerator(output)) {
+                        preprocessor.preprocess(input, generator);
+                    }
+                }
+                record(i, start);
+            }
+        }
+        String result = output.toString();
+        if (validate) {
+            BasePreprocessor.validate(result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the end (exclusive) of the pass starting at the given preprocessor, which is the next index if fusing is not possible
+     */
+    private int endOfFusedPass(int from) {
+        int end = from;
+        while (fused && end < preprocessors.size() && preprocessors.get(end) instanceof StreamingPreprocessor) {
+            end++;
+        }
+        return Math.max(end, from + 1);
+    }
+
+    private void record(int stage, long start) {
+        long nanos = System.nanoTime() - start;
+        StageTiming timing = timings.get(stage);
+        timing.invocations.increment();
+        timing.totalNanos.add(nanos);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Preprocessor " + stage + " (" + timing.preprocessor.getClass().getName() + ") took " + nanos / 1000 + " microseconds");
+        }
+    }
+
+    /**
+     * Accumulated execution time of a single preprocessor of the chain
+     */
+    public static final class StageTiming {
+
+        private final JsonPreprocessor preprocessor;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        private StageTiming(JsonPreprocessor preprocessor) {
+            this.preprocessor = preprocessor;
+        }
+
+        public JsonPreprocessor getPreprocessor() {
+            return preprocessor;
+        }
+
+        public long getInvocations() {
+            return invocations.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return preprocessor.getClass().getSimpleName() + ": " + getInvocations() + " invocations, " + getTotalNanos() / 1000 + " microseconds";
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package de.fraunhofer.iais.eis.ids.jsonld.preprocessing;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * {@code JsonPreprocessor} which transforms the token stream of a message. In a fused {@link PreprocessorChain}, the tokens
+ * are handed on in memory to the next streaming preprocessor, instead of each one parsing and writing the whole message as JSON.
+ */
+public interface StreamingPreprocessor extends JsonPreprocessor {
+
+    /**
+     * Reads one JSON value and writes its transformation. The result must be the same as the one of {@link #preprocess(String)}
+     * @param input parser positioned before the value
+     * @param output generator to which the transformation's result is written
+     */
+    void preprocess(JsonParser input, JsonGenerator output) throws IOException;
+
+    /**
+     * @return whether the transformation's result should be validated. In a fused chain, the result of the whole pass is validated
+     */
+    boolean isRDFValidationEnabled();
+}
@@ -1,179 +1,380 @@
 package de.fraunhofer.iais.eis.ids.jsonld.preprocessing;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.StringWriter;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
 
-public class TypeNamePreprocessor extends BasePreprocessor {
+/**
+ * Converts legacy JSON-LD messages, which omit the ids prefix or use full URIs, to the prefixed notation expected by the parser.
+ * <p>
+ * The message is transformed in a single pass from the token stream of the input to the token stream of the output.
+ * An object is only buffered until it is clear whether it needs to be shortened (e.g. an object consisting of "@id" only,
+ * or a typed literal with an xsd:dateTime or xsd:integer "@value"), which usually is the case after its "@type".
+ * Note that the memory needed is therefore not constant: an object without "@type" (other than one consisting of "@id" only)
+ * is buffered as a whole, including all nested objects, as is everything which precedes the "@type" of an object.
+ * The output is identical to the one of the former implementation, which read the whole message into a map.
+ */
+public class TypeNamePreprocessor extends BasePreprocessor implements StreamingPreprocessor {
 
 	private static final Map<String, String> prefixes;
 
+	private static final NamespaceTrie namespaces = new NamespaceTrie();
+
+	//Only used to create parsers and generators, and to read small values such as "@type"
+	private static final ObjectMapper mapper = new ObjectMapper();
+
 	static {
 		prefixes = new HashMap<>();
 		prefixes.put("ids:", "https://w3id.org/idsa/core/");
 		prefixes.put("idsc:", "https://w3id.org/idsa/code/");
 		prefixes.put("info:", "http://www.fraunhofer.de/fraunhofer-digital/infomodell#");
 		prefixes.put("kdsf:", "http://kerndatensatz-forschung.de/version1/technisches_datenmodell/owl/Basis#");
+		prefixes.forEach((prefix, uri) -> namespaces.add(uri, prefix));
 	}
 
 	@Override
 	String preprocess_impl(String input) throws IOException {
-		ObjectMapper mapper = new ObjectMapper();
-		Map<Object, Object> inMap = mapper.readValue(input, Map.class);
-		Map<Object, Object> outMap = unifyTypeURIPrefix(inMap);
-		return mapper.writeValueAsString(outMap);
+		StringWriter output = new StringWriter(input.length());
+		try (JsonParser parser = mapper.getFactory().createParser(input);
+			 JsonGenerator generator = mapper.getFactory().createGenerator(output)) {
+			preprocess(parser, generator);
+		}
+		return output.toString();
 	}
 
+	/**
+	 * Reads one JSON object from the parser and writes the transformed object to the generator. No validation is performed
+	 * @param parser Parser positioned before the object. Tokens after the end of the object are not consumed
+	 * @param generator Generator to which the transformed object is written
+	 * @throws IOException thrown, if the input is no valid JSON or no JSON object
+	 */
+	@Override
+	public void preprocess(JsonParser parser, JsonGenerator generator) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw MismatchedInputException.from(parser, Map.class, "Expected a JSON object, but got " + parser.currentToken());
+		}
+		new Transformation(parser, generator).writeObject();
+	}
 
-	private Map unifyTypeURIPrefix(Map in) {
-		Map<Object, Object> out = new LinkedHashMap<>();
-		in.forEach((k,v) -> {
-			if(v instanceof String && k instanceof String && k.equals("@type")) {
+	/**
+	 * State of a single transformation. Whenever tokens have been buffered to look ahead, the parser is replaced by a sequence
+	 * of the buffered tokens, followed by the original parser
+	 */
+	private static final class Transformation {
 
+		private JsonParser parser;
+		private final JsonGenerator generator;
 
-				// if key is @type and value is a string: add 'ids:' if no other namespace at the value
-				AtomicReference<String> modifiableValue = new AtomicReference<>((String) v);
-				prefixes.forEach((p, u) -> modifiableValue.set(modifiableValue.get().replace(u, p))); // replace full URI with prefix
-				if(! (modifiableValue.get().startsWith("ids:")
-						|| modifiableValue.get().startsWith("idsc:")
-						|| modifiableValue.get().startsWith("info:")
-						|| modifiableValue.get().startsWith("kdsf:")
-						|| modifiableValue.get().startsWith("xsd:")
-						|| modifiableValue.get().startsWith("http://")
-						|| modifiableValue.get().startsWith("https://"))) {
-					modifiableValue.set("ids:".concat(modifiableValue.get())); // default to ids prefix for backwards compatibility
-				}
-				out.put(k, modifiableValue.get());
+		private Transformation(JsonParser parser, JsonGenerator generator) {
+			this.parser = parser;
+			this.generator = generator;
+		}
 
+		/**
+		 * Writes the object starting at the current token, and all its entries
+		 */
+		private void writeObject() throws IOException {
+			generator.writeStartObject();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String key = parser.getCurrentName();
+				parser.nextToken();
+				writeEntry(key);
+			}
+			generator.writeEndObject();
+		}
 
-			} else if(v instanceof Map) {
-				AtomicReference<String> modifiableKey = new AtomicReference<>((String) k);
+		/**
+		 * Writes a single entry of an object. The parser is positioned at the first token of the value
+		 */
+		private void writeEntry(String key) throws IOException {
+			JsonToken token = parser.currentToken();
+			if (token == JsonToken.VALUE_STRING && key.equals("@type")) {
+				// if key is @type and value is a string: add 'ids:' if no other namespace at the value
+				generator.writeStringField(key, typeName(parser.getText()));
+			} else if (token == JsonToken.START_OBJECT) {
+				writeObjectEntry(key);
+			} else if (token == JsonToken.START_ARRAY) {
+				generator.writeFieldName(arrayKey(key));
+				writeArray();
+			} else {
+				generator.writeFieldName(valueKey(key));
+				copyValue(parser); // modify nothing if not @type or a map
+			}
+		}
 
-				prefixes.forEach((prefix, uri) -> modifiableKey.set(modifiableKey.get().replace(uri, prefix))); // replace full URI with prefix
-				if(! (modifiableKey.get().startsWith("ids:")
-						|| modifiableKey.get().startsWith("info:")
-						|| modifiableKey.get().startsWith("kdsf:")
-						|| modifiableKey.get().startsWith("http://")
-						|| modifiableKey.get().startsWith("https://")
-						|| modifiableKey.get().startsWith("@context"))) {
-					modifiableKey.set("ids:".concat(modifiableKey.get())); // default to ids prefix for backwards compatibility
+		/**
+		 * Writes an entry whose value is an object. Objects consisting of "@id" only are replaced by the id,
+		 * typed literals of xsd:dateTime and xsd:integer are replaced by their value
+		 */
+		private void writeObjectEntry(String key) throws IOException {
+			TokenBuffer buffer = new TokenBuffer(parser);
+			buffer.copyCurrentEvent(parser);
+			int fields = 0;
+			TokenBuffer id = null;
+			TokenBuffer value = null;
+			Object type = null;
+			boolean hasType = false;
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				buffer.copyCurrentEvent(parser);
+				parser.nextToken();
+				fields++;
+				if (fields == 1 && field.equals("@id")) {
+					id = bufferValue();
+					id.serialize(buffer);
+				} else if (field.equals("@type")) {
+					TokenBuffer typeBuffer = bufferValue();
+					type = readValue(typeBuffer);
+					hasType = true;
+					typeBuffer.serialize(buffer);
+				} else if (field.equals("@value")) {
+					value = bufferValue();
+					value.serialize(buffer);
+				} else {
+					buffer.copyCurrentStructure(parser);
 				}
 
-
-				// shorten an @id Map
-				if (((Map) v).containsKey("@id") && ((Map) v).keySet().size() == 1) {
-					Map idMap = new LinkedHashMap<>();
-					idMap.put(k, ((Map) v).get("@id"));
-
-					out.putAll(unifyTypeURIPrefix(idMap));
-
-				} else if (((Map) v).containsKey("@value") && 
-						((Map) v).containsKey("@type"))
-				{
-					if( ((Map) v).get("@type").toString().contains("dateTime")	)
-					{
-
-						// shorten an @value Map with xsd:dateTimes
-						Object date = ((Map) v).get("@value");
-						out.put(modifiableKey, date);
-					}
-					else if(((Map) v).get("@type").toString().equals("xsd:integer"))
-					{
-						int value = Integer.parseInt(((Map) v).get("@value").toString());
-						out.put(modifiableKey, value);
-					}
-					else { //Do the same as below
-						out.put(modifiableKey, unifyTypeURIPrefix((Map) v));
+				if (hasType && !isShortenedType(type)) {
+					//Neither an @id map, nor a typed literal which is shortened. Process the object as it is
+					replay(buffer);
+					generator.writeFieldName(objectKey(key));
+					writeObject();
+					return;
+				}
+				if (hasType && value != null) {
+					writeTypedLiteral(objectKey(key), type, value);
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						parser.nextToken();
+						parser.skipChildren();
 					}
-				
-				} else {
-
-					out.put(modifiableKey, unifyTypeURIPrefix((Map) v));
-
-
+					return;
 				}
+			}
 
-			} else if(v instanceof ArrayList) {
+			if (fields == 1 && id != null) {
+				// shorten an @id Map
+				replay(id);
+				writeEntry(key);
+				return;
+			}
+			buffer.copyCurrentEvent(parser);
+			replay(buffer);
+			generator.writeFieldName(objectKey(key));
+			writeObject();
+		}
 
+		/**
+		 * Writes the array starting at the current token. Elements consisting of "@id" only are replaced by the id and moved to the end
+		 */
+		private void writeArray() throws IOException {
+			generator.writeStartArray();
+			TokenBuffer references = writeElements(true);
+			if (references != null) {
+				references.writeEndArray();
+				replay(references);
+				writeElements(false);
+			}
+			generator.writeEndArray();
+		}
 
-				AtomicReference<String> modifiableKey = new AtomicReference<>((String) k);
-				prefixes.forEach((p, u) -> modifiableKey.set(modifiableKey.get().replace(u, p))); // replace full URI with prefix
-				if(! (modifiableKey.get().startsWith("ids:")
-						|| modifiableKey.get().startsWith("info:")
-						|| modifiableKey.get().startsWith("kdsf:")
-						|| modifiableKey.get().startsWith("http://")
-						|| modifiableKey.get().startsWith("https://"))) {
-					modifiableKey.set("ids:".concat(modifiableKey.get())); // default to ids prefix for backwards compatibility
+		/**
+		 * Writes all elements of the current array. Non-empty objects are processed, empty objects are dropped, anything else is copied
+		 * @param moveReferences Whether objects consisting of "@id" only are moved to the end of the array
+		 * @return an array of the moved ids, without its end, or null, if there are none
+		 */
+		private TokenBuffer writeElements(boolean moveReferences) throws IOException {
+			TokenBuffer references = null;
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				if (parser.currentToken() != JsonToken.START_OBJECT) {
+					copyValue(parser);
+					continue;
+				}
+				TokenBuffer buffer = new TokenBuffer(parser);
+				buffer.copyCurrentEvent(parser);
+				if (parser.nextToken() == JsonToken.END_OBJECT) {
+					continue;
 				}
-				
-				Iterator iter = new ArrayList((ArrayList) v).iterator(); //making a copy of the old array so the iterator does not get confused by the element deletions
-				while (iter.hasNext()) {
-					Object child = iter.next();
-					if (child instanceof Map && ((Map) child).containsKey("@id") && ((Map) child).keySet().size() == 1) {
-						((ArrayList) v).remove(child);
-						((ArrayList) v).add(((Map) child).get("@id"));
+				buffer.copyCurrentEvent(parser);
+				if (moveReferences && parser.getCurrentName().equals("@id")) {
+					parser.nextToken();
+					TokenBuffer id = bufferValue();
+					if (parser.nextToken() == JsonToken.END_OBJECT) {
+						if (references == null) {
+							references = new TokenBuffer(parser);
+							references.writeStartArray();
+						}
+						id.serialize(references);
+						continue;
 					}
+					id.serialize(buffer);
+					buffer.copyCurrentEvent(parser);
 				}
+				replay(buffer);
+				writeObject();
+			}
+			return references;
+		}
 
-				out.put(modifiableKey, unifyTypeURIPrefix((ArrayList) v)); // TODO: What happens with an Array inside the Array?
-
-
+		private void writeTypedLiteral(String key, Object type, TokenBuffer value) throws IOException {
+			generator.writeFieldName(key);
+			if (String.valueOf(type).contains("dateTime")) {
+				// shorten an @value Map with xsd:dateTimes
+				JsonParser valueParser = value.asParser();
+				valueParser.nextToken();
+				copyValue(valueParser);
 			} else {
+				generator.writeNumber(Integer.parseInt(String.valueOf(readValue(value))));
+			}
+		}
 
+		/**
+		 * @return the value starting at the current token. The parser is positioned at its last token afterwards
+		 */
+		private TokenBuffer bufferValue() throws IOException {
+			TokenBuffer buffer = new TokenBuffer(parser);
+			buffer.copyCurrentStructure(parser);
+			return buffer;
+		}
 
-				AtomicReference<String> modifiableKey = new AtomicReference<>((String) k);
-				prefixes.forEach((p, u) -> modifiableKey.set(modifiableKey.get().replace(u, p))); // replace full URI with prefix
-				if(! (modifiableKey.get().startsWith("ids:")
-						|| modifiableKey.get().startsWith("info:")
-						|| modifiableKey.get().startsWith("kdsf:")
-						|| modifiableKey.get().startsWith("http://")
-						|| modifiableKey.get().startsWith("https://")
-						|| modifiableKey.get().startsWith("@"))) {
-					//in the context definition, a pair might look like this: "ids" : "http://www.someURL.com"
-					//Here, we start with "ids", not "ids:". So we also need to check that the key is not contained in our prefixes
-					if(!prefixes.containsKey(modifiableKey.get() + ":")) {
-						modifiableKey.set("ids:".concat(modifiableKey.get())); // default to ids prefix for backwards compatibility
-					}
-				}
+		/**
+		 * Continues parsing with the buffered tokens, followed by the remaining input, and moves to the first buffered token
+		 */
+		private void replay(TokenBuffer buffer) throws IOException {
+			parser = JsonParserSequence.createFlattened(false, buffer.asParser(), parser);
+			parser.nextToken();
+		}
 
-				out.put(modifiableKey, v); // modify nothing if not @type or a map
-			}
-		});
-		return out;
+		/**
+		 * Copies the value starting at the current token. Floating point numbers are written as double, like ObjectMapper does
+		 */
+		private void copyValue(JsonParser source) throws IOException {
+			int depth = 0;
+			do {
+				JsonToken token = source.currentToken();
+				if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+					generator.writeNumber(source.getDoubleValue());
+				} else {
+					generator.copyCurrentEvent(source);
+				}
+				if (token.isStructStart()) {
+					depth++;
+				} else if (token.isStructEnd()) {
+					depth--;
+				}
+			} while (depth > 0 && source.nextToken() != null);
+		}
 	}
 
+	private static Object readValue(TokenBuffer buffer) throws IOException {
+		return mapper.readValue(buffer.asParser(), Object.class);
+	}
 
-	private ArrayList unifyTypeURIPrefix(ArrayList in) {
-		ArrayList out = new ArrayList<>();
-
-		Iterator iter = in.iterator();
-
-		while (iter.hasNext()) {
-			Object v = iter.next();
-			if(v instanceof Map) {
+	private static boolean isShortenedType(Object type) {
+		String typeName = String.valueOf(type);
+		return typeName.contains("dateTime") || typeName.equals("xsd:integer");
+	}
 
+	private static String typeName(String type) {
+		String compacted = namespaces.compact(type); // replace full URI with prefix
+		if (startsWithAny(compacted, "ids:", "idsc:", "info:", "kdsf:", "xsd:", "http://", "https://")) {
+			return compacted;
+		}
+		return "ids:".concat(compacted); // default to ids prefix for backwards compatibility
+	}
 
-				if (!((Map) v).isEmpty())
-					out.add( unifyTypeURIPrefix((Map) v));
+	private static String objectKey(String key) {
+		String compacted = namespaces.compact(key);
+		if (startsWithAny(compacted, "ids:", "info:", "kdsf:", "http://", "https://", "@context")) {
+			return compacted;
+		}
+		return "ids:".concat(compacted);
+	}
 
+	private static String arrayKey(String key) {
+		String compacted = namespaces.compact(key);
+		if (startsWithAny(compacted, "ids:", "info:", "kdsf:", "http://", "https://")) {
+			return compacted;
+		}
+		return "ids:".concat(compacted);
+	}
 
-			} else if (v instanceof String) {
+	private static String valueKey(String key) {
+		String compacted = namespaces.compact(key);
+		//in the context definition, a pair might look like this: "ids" : "http://www.someURL.com"
+		//Here, we start with "ids", not "ids:". So we also need to check that the key is not contained in our prefixes
+		if (startsWithAny(compacted, "ids:", "info:", "kdsf:", "http://", "https://", "@") || prefixes.containsKey(compacted + ":")) {
+			return compacted;
+		}
+		return "ids:".concat(compacted);
+	}
 
-				out.add(v); // modify nothing if not @type or a map
-			} else {
-				out.add(v);
+	private static boolean startsWithAny(String value, String... starts) {
+		for (String start : starts) {
+			if (value.startsWith(start)) {
+				return true;
 			}
 		}
-		return out;
+		return false;
 	}
 
+	/**
+	 * Character trie of the namespace URIs, which replaces all of their occurrences by the prefix in a single scan
+	 */
+	private static final class NamespaceTrie {
 
+		private final Map<Character, NamespaceTrie> children = new HashMap<>();
+		private String prefix;
 
+		private void add(String uri, String prefix) {
+			NamespaceTrie node = this;
+			for (int i = 0; i < uri.length(); i++) {
+				node = node.children.computeIfAbsent(uri.charAt(i), c -> new NamespaceTrie());
+			}
+			node.prefix = prefix;
+		}
 
+		private String compact(String input) {
+			StringBuilder result = null;
+			int copied = 0;
+			int i = 0;
+			while (i < input.length()) {
+				NamespaceTrie node = this;
+				String match = null;
+				int matchEnd = i;
+				for (int j = i; j < input.length(); j++) {
+					node = node.children.get(input.charAt(j));
+					if (node == null) {
+						break;
+					}
+					if (node.prefix != null) {
+						match = node.prefix;
+						matchEnd = j + 1;
+					}
+				}
+				if (match == null) {
+					i++;
+					continue;
+				}
+				if (result == null) {
+					result = new StringBuilder(input.length());
+				}
+				result.append(input, copied, i).append(match);
+				i = copied = matchEnd;
+			}
+			if (result == null) {
+				return input;
+			}
+			return result.append(input, copied, input.length()).toString();
+		}
+	}
 }
@@ -1,55 +1,190 @@
 package de.fraunhofer.iais.eis.ids.jsonld.util;
 
-import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
 import io.github.classgraph.ClassGraph;
-import io.github.classgraph.ClassInfoList;
+import io.github.classgraph.ClassInfo;
 import io.github.classgraph.ScanResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.*;
 
+/**
+ * Resolves the Jackson mixins of the infomodel classes, i.e. the classes "de.fraunhofer.iais.eis.mixins.[Name]Mixin"
+ * for the model classes "de.fraunhofer.iais.eis.[Name]".
+ * <p>
+ * The mixins are read from the index {@value #INDEX_RESOURCE}, if there is one on the classpath. The index depends on the infomodel
+ * version chosen by the user of this library, so it is not part of this library. It is generated with {@link #main(String[])} during
+ * the build of the application (see README). The index records the names of the jars it was generated from (e.g. "java-4.2.7.jar"),
+ * and it is only used if the listed classes are still loaded from jars of these names. Otherwise, e.g. after an update of the
+ * infomodel without regenerating the index, and if there is no index, the classpath is scanned. Either way, this happens once per JVM
+ */
 public class MixinHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(MixinHelper.class);
 
+    /**
+     * Classpath resource listing the mixins, one "model class=mixin class" per line. All applicable resources of this name on the classpath are read
+     */
+    public static final String INDEX_RESOURCE = "META-INF/ids-serializer/mixins.properties";
+
+    /**
+     * Key of the index entry listing the names of the classpath entries (jars) the index was generated from, comma-separated
+     */
+    private static final String SOURCE_KEY = "@source";
+
     private static final String MIXIN_SUFFIX = "Mixin";
 
     private static final String PACKAGE_NAME = "de.fraunhofer.iais.eis";
 
     private static final String MIXIN_PACKAGE_SUFFIX = ".mixins";
 
+    /**
+     * @return unmodifiable map from model classes to their mixins
+     */
     public static Map<Class<?>, Class<?>> scanMixins() {
-        ScanResult modelScan = new ClassGraph()
-                .enableClassInfo()
-                .acceptPackagesNonRecursive(PACKAGE_NAME)
-                .scan();
+        return MixinCache.mixins;
+    }
 
-        ScanResult mixinScan = new ClassGraph()
-                .enableClassInfo()
-                .acceptPackagesNonRecursive(PACKAGE_NAME + MIXIN_PACKAGE_SUFFIX)
-                .scan();
+    /**
+     * Scans the classpath for mixins. Prefer {@link #scanMixins()}, which uses the index and caches the result
+     * @return map from model classes to their mixins
+     */
+    public static Map<Class<?>, Class<?>> scanClasspath() {
         Map<Class<?>, Class<?>> mixins = new HashMap<>();
-        mixinScan.getAllClasses()
-                .filter(x -> x.getSimpleName().endsWith(MIXIN_SUFFIX))
-                .loadClasses()
-                .forEach(x -> {
-                    String modelClassName = x.getSimpleName().substring(0, x.getSimpleName().length() - MIXIN_SUFFIX.length());
-                    ClassInfoList modelClassInfos = modelScan.getAllClasses().filter(y -> Objects.equals(y.getSimpleName(), modelClassName));
-
-                    if (modelClassInfos.isEmpty()) {
-                        logger.warn("could not auto-resolve target class for mixin '{}'", x.getSimpleName());
-                    } else {
-                        mixins.put(modelClassInfos.get(0).loadClass(), x);
-//                        logger.info("using mixin '{}' for class '{}'",
-//                                x.getSimpleName(),
-//                                modelClassInfos.get(0).getName());
-                    }
-                });
+        try (ScanResult scan = new ClassGraph()
+                .enableClassInfo()
+                .acceptPackagesNonRecursive(PACKAGE_NAME, PACKAGE_NAME + MIXIN_PACKAGE_SUFFIX)
+                .scan()) {
+            Map<String, ClassInfo> modelClassesBySimpleName = new HashMap<>();
+            List<ClassInfo> mixinClasses = new ArrayList<>();
+            for (ClassInfo classInfo : scan.getAllClasses()) {
+                if (classInfo.getPackageName().equals(PACKAGE_NAME)) {
+                    modelClassesBySimpleName.putIfAbsent(classInfo.getSimpleName(), classInfo);
+                } else if (classInfo.getSimpleName().endsWith(MIXIN_SUFFIX)) {
+                    mixinClasses.add(classInfo);
+                }
+            }
+            for (ClassInfo mixinClass : mixinClasses) {
+                String modelClassName = mixinClass.getSimpleName().substring(0, mixinClass.getSimpleName().length() - MIXIN_SUFFIX.length());
+                ClassInfo modelClass = modelClassesBySimpleName.get(modelClassName);
+                if (modelClass == null) {
+                    logger.warn("could not auto-resolve target class for mixin '{}'", mixinClass.getSimpleName());
+                } else {
+                    mixins.put(modelClass.loadClass(), mixinClass.loadClass());
+                }
+            }
+        }
         return mixins;
     }
 
+    /**
+     * Writes the mixin index of the current classpath. Meant to be run during the build of an application, with the infomodel
+     * on the classpath. Fails, if no mixins are found, as an empty index would be useless
+     * @param args path of the index file to be written
+     * @throws IOException thrown, if the index cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path index = Paths.get(args[0]);
+        if (index.getParent() != null) {
+            Files.createDirectories(index.getParent());
+        }
+        Map<String, String> entries = new TreeMap<>();
+        Set<String> sources = new TreeSet<>();
+        scanClasspath().forEach((model, mixin) -> {
+            entries.put(model.getName(), mixin.getName());
+            sources.add(classpathEntryName(model));
+            sources.add(classpathEntryName(mixin));
+        });
+        if (entries.isEmpty()) {
+            throw new IllegalStateException("No mixins found on the classpath, the model classes are missing");
+        }
+        try (Writer writer = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+            writer.write("# Generated by " + MixinHelper.class.getName() + ". Do not edit\n");
+            writer.write(SOURCE_KEY + "=" + String.join(",", sources) + "\n");
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    /**
+     * @return the mixins of all index resources, or null if there is no applicable index
+     */
+    static Map<Class<?>, Class<?>> readIndex() {
+        ClassLoader classLoader = MixinHelper.class.getClassLoader();
+        Map<Class<?>, Class<?>> mixins = new HashMap<>();
+        try {
+            Enumeration<URL> indices = classLoader.getResources(INDEX_RESOURCE);
+            while (indices.hasMoreElements()) {
+                URL index = indices.nextElement();
+                Properties entries = new Properties();
+                try (InputStream indexStream = index.openStream()) {
+                    entries.load(indexStream);
+                }
+                String source = (String) entries.remove(SOURCE_KEY);
+                if (source == null || entries.isEmpty()) {
+                    logger.warn("Ignoring incomplete mixin index " + index);
+                    continue;
+                }
+                Set<String> expectedSources = new TreeSet<>(Arrays.asList(source.split(",")));
+                Set<String> actualSources = new TreeSet<>();
+                for (String modelClassName : entries.stringPropertyNames()) {
+                    Class<?> modelClass = Class.forName(modelClassName, false, classLoader);
+                    Class<?> mixinClass = Class.forName(entries.getProperty(modelClassName), false, classLoader);
+                    actualSources.add(classpathEntryName(modelClass));
+                    actualSources.add(classpathEntryName(mixinClass));
+                    mixins.put(modelClass, mixinClass);
+                }
+                if (!expectedSources.equals(actualSources)) {
+                    //The index was generated for other classes (e.g. another version of the infomodel), so it may be incomplete
+                    logger.warn("Mixin index " + index + " was generated from " + expectedSources + ", but the classes are loaded from "
+                            + actualSources + ". Scanning for mixins instead");
+                    return null;
+                }
+            }
+        } catch (IOException | ClassNotFoundException | LinkageError e) {
+            logger.warn("Mixin index " + INDEX_RESOURCE + " is not applicable to the classpath, scanning for mixins instead", e);
+            return null;
+        }
+        return mixins.isEmpty() ? null : mixins;
+    }
+
+    /**
+     * @return the file name of the classpath entry (jar or directory) from which the class was loaded, e.g. "java-4.2.7.jar",
+     * or an empty String if it is unknown. The name stays the same if the jar is moved, e.g. into the lib folder of an application
+     */
+    private static String classpathEntryName(Class<?> type) {
+        CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return "";
+        }
+        String location = codeSource.getLocation().toString();
+        while (location.endsWith("/") || location.endsWith("!")) {
+            location = location.substring(0, location.length() - 1);
+        }
+        return location.substring(location.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Lazily initialized holder of the mixins of this JVM
+     */
+    private static final class MixinCache {
+        private static final Map<Class<?>, Class<?>> mixins;
+
+        static {
+            Map<Class<?>, Class<?>> indexed = readIndex();
+            mixins = Collections.unmodifiableMap(indexed != null ? indexed : scanClasspath());
+        }
+    }
+
     private MixinHelper(){}
 }
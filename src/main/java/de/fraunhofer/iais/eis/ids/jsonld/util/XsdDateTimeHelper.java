@@ -0,0 +1,134 @@
+package de.fraunhofer.iais.eis.ids.jsonld.util;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Conversion between XMLGregorianCalendar and its xsd:dateTimeStamp representation "yyyy-MM-dd'T'HH:mm:ss.SSSXXX".
+ * Every message has at least one such value, so this avoids the per-value costs of SimpleDateFormat and DatatypeFactory.newInstance().
+ * All methods are thread-safe
+ */
+public final class XsdDateTimeHelper {
+
+    public static final String XSD_DATE_TIME_STAMP = "http://www.w3.org/2001/XMLSchema#dateTimeStamp";
+
+    //Same as the SimpleDateFormat pattern "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", which does not prefix years above 9999 with "+"
+    private static final DateTimeFormatter formatter = new DateTimeFormatterBuilder()
+            .appendValue(ChronoField.YEAR_OF_ERA, 4, 10, SignStyle.NORMAL)
+            .appendPattern("-MM-dd'T'HH:mm:ss.SSSXXX")
+            .toFormatter();
+
+    private static final DatatypeFactory datatypeFactory;
+
+    static {
+        try {
+            datatypeFactory = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private XsdDateTimeHelper() {
+    }
+
+    /**
+     * @return a shared DatatypeFactory, as looking it up is expensive
+     */
+    public static DatatypeFactory datatypeFactory() {
+        return datatypeFactory;
+    }
+
+    /**
+     * Formats a calendar as xsd:dateTimeStamp, in the time zone of the calendar (or the default time zone, if it has none)
+     * @param value calendar to format
+     * @return the value in the format "yyyy-MM-dd'T'HH:mm:ss.SSSXXX"
+     */
+    public static String format(XMLGregorianCalendar value) {
+        if (isPlainTimestamp(value)) {
+            //The fields are already those of the output, so they can be written directly
+            char[] result = new char[value.getTimezone() == 0 ? 24 : 29];
+            writeDigits(result, 0, value.getYear(), 4);
+            result[4] = '-';
+            writeDigits(result, 5, value.getMonth(), 2);
+            result[7] = '-';
+            writeDigits(result, 8, value.getDay(), 2);
+            result[10] = 'T';
+            writeDigits(result, 11, value.getHour(), 2);
+            result[13] = ':';
+            writeDigits(result, 14, value.getMinute(), 2);
+            result[16] = ':';
+            writeDigits(result, 17, value.getSecond(), 2);
+            result[19] = '.';
+            writeDigits(result, 20, value.getMillisecond(), 3);
+            int timezone = value.getTimezone();
+            if (timezone == 0) {
+                result[23] = 'Z';
+            } else {
+                result[23] = timezone < 0 ? '-' : '+';
+                writeDigits(result, 24, Math.abs(timezone) / 60, 2);
+                result[26] = ':';
+                writeDigits(result, 27, Math.abs(timezone) % 60, 2);
+            }
+            return new String(result);
+        }
+        //Undefined or out of range fields are normalized by the GregorianCalendar. Its offset may differ from the one of java.time for
+        //historical dates, so it is taken from the calendar
+        GregorianCalendar calendar = value.toGregorianCalendar();
+        ZoneOffset offset = ZoneOffset.ofTotalSeconds((calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET)) / 1000);
+        return formatter.format(OffsetDateTime.ofInstant(Instant.ofEpochMilli(calendar.getTimeInMillis()), offset));
+    }
+
+    /**
+     * Parses an xsd:dateTimeStamp, such as "2020-01-31T12:00:00.000+01:00"
+     * @param lexicalForm timestamp with time zone, as accepted by ZonedDateTime.parse
+     * @return the timestamp with millisecond precision
+     * @throws java.time.format.DateTimeParseException thrown, if the input is no valid timestamp
+     */
+    public static XMLGregorianCalendar parse(String lexicalForm) {
+        ZonedDateTime dateTime = ZonedDateTime.parse(lexicalForm);
+        if (dateTime.getYear() < 1 || !(dateTime.getZone() instanceof ZoneOffset)) {
+            //Years before the common era are numbered differently by XMLGregorianCalendar, and the offsets of time zone regions
+            //may differ from those of java.util.TimeZone
+            return datatypeFactory.newXMLGregorianCalendar(GregorianCalendar.from(dateTime));
+        }
+        return datatypeFactory.newXMLGregorianCalendar(dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(),
+                dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond(), dateTime.getNano() / 1_000_000,
+                dateTime.getOffset().getTotalSeconds() / 60);
+    }
+
+    /**
+     * @return whether all fields of the value are defined and within their usual range, i.e. no normalization is needed
+     */
+    private static boolean isPlainTimestamp(XMLGregorianCalendar value) {
+        int year = value.getYear();
+        int timezone = value.getTimezone();
+        return value.getEon() == null && year >= 1 && year <= 9999
+                && value.getMonth() != DatatypeConstants.FIELD_UNDEFINED
+                && value.getDay() != DatatypeConstants.FIELD_UNDEFINED && value.getDay() <= YearMonth.of(year, value.getMonth()).lengthOfMonth()
+                && value.getHour() != DatatypeConstants.FIELD_UNDEFINED && value.getHour() < 24
+                && value.getMinute() != DatatypeConstants.FIELD_UNDEFINED
+                && value.getSecond() != DatatypeConstants.FIELD_UNDEFINED && value.getSecond() < 60
+                && value.getMillisecond() != DatatypeConstants.FIELD_UNDEFINED
+                && timezone != DatatypeConstants.FIELD_UNDEFINED && Math.abs(timezone) < 24 * 60;
+    }
+
+    private static void writeDigits(char[] target, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            target[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
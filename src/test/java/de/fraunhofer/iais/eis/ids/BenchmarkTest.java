@@ -0,0 +1,450 @@
+package de.fraunhofer.iais.eis.ids;
+
+import de.fraunhofer.iais.eis.Representation;
+import de.fraunhofer.iais.eis.RepresentationBuilder;
+import de.fraunhofer.iais.eis.Resource;
+import de.fraunhofer.iais.eis.ResourceBuilder;
+import de.fraunhofer.iais.eis.ResourceCatalog;
+import de.fraunhofer.iais.eis.ResourceCatalogBuilder;
+import de.fraunhofer.iais.eis.ids.jsonld.OutputProfile;
+import de.fraunhofer.iais.eis.ids.jsonld.ParserEngine;
+import de.fraunhofer.iais.eis.ids.jsonld.RootSelectionStrategy;
+import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import de.fraunhofer.iais.eis.ids.jsonld.SerializerConfig;
+import de.fraunhofer.iais.eis.ids.jsonld.util.XsdDateTimeHelper;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import de.fraunhofer.iais.eis.util.Util;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performance benchmarks of the serializer. The numbers are only meaningful on an otherwise idle machine,
+ * so these tests are skipped during regular builds. Run them with: mvn test -Dtest=BenchmarkTest -Dids.benchmark=true
+ */
+public class BenchmarkTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(BenchmarkTest.class);
+
+	private static Serializer serializer;
+	private static List<Object> fixtures;
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		Assume.assumeTrue("Benchmarks are disabled. Enable with -Dids.benchmark=true", Boolean.getBoolean("ids.benchmark"));
+		serializer = new Serializer();
+		fixtures = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			fixtures.add(serializer.deserialize(SerializerUtil.readResourceToString(fixture.getKey()), fixture.getValue()));
+		}
+	}
+
+	/**
+	 * Measures the serialization throughput with one thread and with one thread per core.
+	 * On machines with 8 or more cores, the parallel throughput must clearly exceed the single threaded one.
+	 */
+	@Test
+	public void serializationThroughputScalesWithThreads() throws Exception {
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		//Warm up
+		serializeFixtures(cores, 2000);
+
+		double single = serializeFixtures(1, 20000);
+		double parallel = serializeFixtures(cores, 20000);
+		logger.info("Serialization throughput: {} ops/s with 1 thread, {} ops/s with {} threads (speedup {})",
+				Math.round(single), Math.round(parallel), cores, String.format("%.2f", parallel / single));
+
+		Assume.assumeTrue("Scaling is only asserted on 8 or more cores", cores >= 8);
+		Assert.assertTrue(parallel > 3 * single);
+	}
+
+	/**
+	 * Reports the average message size and serialization time of the test fixtures for both output profiles
+	 */
+	@Test
+	public void outputProfiles() throws Exception {
+		for (OutputProfile profile : OutputProfile.values()) {
+			Serializer profileSerializer = new Serializer();
+			profileSerializer.setOutputProfile(profile);
+			for (int i = 0; i < 2000; i++) {
+				profileSerializer.serialize(fixtures.get(i % fixtures.size()));
+			}
+
+			long bytes = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < 20000; i++) {
+				bytes += profileSerializer.serialize(fixtures.get(i % fixtures.size())).getBytes(StandardCharsets.UTF_8).length;
+			}
+			long duration = System.nanoTime() - start;
+			logger.info("Output profile {}: {} bytes/msg, {} ns/op", profile, bytes / 20000, duration / 20000);
+		}
+	}
+
+	/**
+	 * Compares the Turtle serialization of the test fixtures via JSON-LD (and Jena's JSON-LD parser) with the direct
+	 * emission of triples
+	 */
+	@Test
+	public void turtleSerialization() throws Exception {
+		for (int i = 0; i < 500; i++) {
+			Object fixture = fixtures.get(i % fixtures.size());
+			serializer.convertJsonLdToOtherRdfFormat(serializer.serialize(fixture), RDFLanguages.TURTLE);
+			serializer.serialize(fixture, RDFLanguages.TURTLE);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 5000; i++) {
+			Object fixture = fixtures.get(i % fixtures.size());
+			serializer.convertJsonLdToOtherRdfFormat(serializer.serialize(fixture), RDFLanguages.TURTLE);
+		}
+		long viaJsonLd = (System.nanoTime() - start) / 5000;
+
+		start = System.nanoTime();
+		for (int i = 0; i < 5000; i++) {
+			serializer.serialize(fixtures.get(i % fixtures.size()), RDFLanguages.TURTLE);
+		}
+		long direct = (System.nanoTime() - start) / 5000;
+		logger.info("Turtle serialization: {} ns/op via JSON-LD, {} ns/op with direct triple emission", viaJsonLd, direct);
+		Assert.assertTrue(direct < viaJsonLd);
+	}
+
+	/**
+	 * Compares the deserialization time of the test fixtures with both parser engines. The JSON-LD is read into models
+	 * beforehand, so that only the mapping of the graph to Java objects is measured
+	 */
+	@Test
+	public void parserEngines() throws Exception {
+		List<Model> models = new ArrayList<>();
+		List<Class<?>> targetClasses = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			Model model = ModelFactory.createDefaultModel();
+			RDFDataMgr.read(model, new ByteArrayInputStream(SerializerUtil.readResourceToString(fixture.getKey()).getBytes(StandardCharsets.UTF_8)), RDFLanguages.JSONLD);
+			models.add(model);
+			targetClasses.add(fixture.getValue());
+		}
+
+		Map<ParserEngine, Long> nanosPerOp = new EnumMap<>(ParserEngine.class);
+		for (ParserEngine engine : ParserEngine.values()) {
+			Serializer engineSerializer = new Serializer();
+			engineSerializer.setParserEngine(engine);
+			for (int i = 0; i < 200; i++) {
+				engineSerializer.deserialize(models.get(i % models.size()), targetClasses.get(i % models.size()));
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < 2000; i++) {
+				engineSerializer.deserialize(models.get(i % models.size()), targetClasses.get(i % models.size()));
+			}
+			nanosPerOp.put(engine, (System.nanoTime() - start) / 2000);
+		}
+		logger.info("Deserialization of the test fixtures: {} ns/op with SPARQL queries, {} ns/op with direct graph access",
+				nanosPerOp.get(ParserEngine.SPARQL), nanosPerOp.get(ParserEngine.GRAPH));
+		Assert.assertTrue(nanosPerOp.get(ParserEngine.GRAPH) < nanosPerOp.get(ParserEngine.SPARQL));
+	}
+
+	/**
+	 * Deserializes a resource with 10k keywords and 10k representations with both parser engines. The values of such lists
+	 * are handed to the parser as nodes of the graph, so the time should grow linearly with the number of values
+	 */
+	@Test
+	public void largeMultiValuedProperties() throws Exception {
+		List<TypedLiteral> keywords = new ArrayList<>();
+		List<Representation> representations = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			keywords.add(new TypedLiteral("keyword " + i, "en"));
+			representations.add(new RepresentationBuilder(URI.create("https://example.org/representation/" + i)).build());
+		}
+		Resource resource = new ResourceBuilder(URI.create("https://example.org/resource"))
+				._keyword_(keywords)
+				._representation_(representations)
+				.build();
+		Model model = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(model, new ByteArrayInputStream(serializer.serialize(resource).getBytes(StandardCharsets.UTF_8)), RDFLanguages.JSONLD);
+
+		for (ParserEngine engine : ParserEngine.values()) {
+			Serializer engineSerializer = new Serializer();
+			engineSerializer.setParserEngine(engine);
+			//Warm up
+			engineSerializer.deserialize(model, Resource.class);
+
+			long start = System.nanoTime();
+			Resource parsed = engineSerializer.deserialize(model, Resource.class);
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			logger.info("Resource with 10000 keywords and 10000 representations: {} ms with {}", millis, engine);
+			Assert.assertEquals(10000, parsed.getKeyword().size());
+			Assert.assertEquals(10000, parsed.getRepresentation().size());
+		}
+	}
+
+	/**
+	 * Deserializes a single resource from a catalog with 2000 resources, which are all candidates for the returned object.
+	 * Compares the index based root selection with one CONSTRUCT query per candidate
+	 */
+	@Test
+	public void rootSelectionStrategies() throws Exception {
+		List<Resource> resources = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			resources.add(new ResourceBuilder(URI.create("https://example.org/resource/" + i))
+					._title_(Util.asList(new TypedLiteral("Resource " + i, "en")))
+					.build());
+		}
+		ResourceCatalog catalog = new ResourceCatalogBuilder()._offeredResourceAsObject_(resources).build();
+		Model model = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(model, new ByteArrayInputStream(serializer.serialize(catalog).getBytes(StandardCharsets.UTF_8)), RDFLanguages.JSONLD);
+
+		Map<RootSelectionStrategy, Long> millis = new EnumMap<>(RootSelectionStrategy.class);
+		for (RootSelectionStrategy strategy : RootSelectionStrategy.values()) {
+			Serializer strategySerializer = new Serializer();
+			strategySerializer.setRootSelectionStrategy(strategy);
+			//Warm up
+			strategySerializer.deserialize(model, Resource.class);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < 5; i++) {
+				strategySerializer.deserialize(model, Resource.class);
+			}
+			millis.put(strategy, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / 5);
+		}
+		logger.info("Root selection among 2000 resources: {} ms with the graph index, {} ms with CONSTRUCT queries",
+				millis.get(RootSelectionStrategy.GRAPH_INDEX), millis.get(RootSelectionStrategy.CONSTRUCT_QUERY));
+		Assert.assertTrue(millis.get(RootSelectionStrategy.GRAPH_INDEX) < millis.get(RootSelectionStrategy.CONSTRUCT_QUERY));
+	}
+
+	/**
+	 * Compares formatting and parsing of xsd:dateTimeStamp values (as in the "issued" field of every message) via SimpleDateFormat
+	 * and DatatypeFactory.newInstance() per value with the cached XsdDateTimeHelper
+	 */
+	@Test
+	public void xsdDateTimeStamps() throws Exception {
+		DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+		List<XMLGregorianCalendar> calendars = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone(ZoneOffset.ofHoursMinutes(i % 14, (i % 2) * 30)));
+			calendar.setTimeInMillis(1600000000000L + i * 7919000L + i);
+			calendars.add(datatypeFactory.newXMLGregorianCalendar(calendar));
+		}
+		for (XMLGregorianCalendar calendar : calendars) {
+			Assert.assertEquals(formatWithSimpleDateFormat(calendar), XsdDateTimeHelper.format(calendar));
+		}
+
+		long legacyFormat = 0, cachedFormat = 0, legacyParse = 0, cachedParse = 0;
+		for (int round = 0; round < 2; round++) {
+			//The first round is the warm-up
+			long start = System.nanoTime();
+			for (int i = 0; i < 100000; i++) {
+				formatWithSimpleDateFormat(calendars.get(i % calendars.size()));
+			}
+			legacyFormat = (System.nanoTime() - start) / 100000;
+
+			start = System.nanoTime();
+			for (int i = 0; i < 100000; i++) {
+				XsdDateTimeHelper.format(calendars.get(i % calendars.size()));
+			}
+			cachedFormat = (System.nanoTime() - start) / 100000;
+
+			start = System.nanoTime();
+			for (int i = 0; i < 100000; i++) {
+				DatatypeFactory.newInstance().newXMLGregorianCalendar(GregorianCalendar.from(ZonedDateTime.parse("2020-09-13T12:26:40.000+02:00")));
+			}
+			legacyParse = (System.nanoTime() - start) / 100000;
+
+			start = System.nanoTime();
+			for (int i = 0; i < 100000; i++) {
+				XsdDateTimeHelper.parse("2020-09-13T12:26:40.000+02:00");
+			}
+			cachedParse = (System.nanoTime() - start) / 100000;
+		}
+		logger.info("xsd:dateTimeStamp: format {} ns/op with SimpleDateFormat, {} ns/op cached; parse {} ns/op with DatatypeFactory.newInstance(), {} ns/op cached",
+				legacyFormat, cachedFormat, legacyParse, cachedParse);
+		Assert.assertTrue(cachedFormat < legacyFormat);
+		Assert.assertTrue(cachedParse < legacyParse);
+	}
+
+	private static String formatWithSimpleDateFormat(XMLGregorianCalendar calendar) {
+		SimpleDateFormat xsdDateTimeStampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+		xsdDateTimeStampFormat.setCalendar(calendar.toGregorianCalendar());
+		return xsdDateTimeStampFormat.format(calendar.toGregorianCalendar().getTime());
+	}
+
+	/**
+	 * Compares the peak heap usage of serializing a catalog with 50k resources to a String (and encoding it, as an HTTP
+	 * layer would) with streaming it directly to an OutputStream
+	 */
+	@Test
+	public void peakHeapOfLargeCatalog() throws Exception {
+		List<Resource> resources = new ArrayList<>();
+		for (int i = 0; i < 50000; i++) {
+			resources.add(new ResourceBuilder(URI.create("https://example.org/resource/" + i))
+					._title_(Util.asList(new TypedLiteral("Resource " + i, "en")))
+					._contentStandard_(URI.create("https://example.org/contentStandard/" + i))
+					.build());
+		}
+		ResourceCatalog catalog = new ResourceCatalogBuilder()._offeredResourceAsObject_(resources).build();
+		CountingOutputStream sink = new CountingOutputStream();
+
+		//Warm up
+		sink.write(serializer.serialize(catalog).getBytes(StandardCharsets.UTF_8));
+		long documentSize = sink.count;
+		serializer.serialize(catalog, sink, RDFLanguages.JSONLD);
+
+		long stringPeak = peakHeapDuring(() -> sink.write(serializer.serialize(catalog).getBytes(StandardCharsets.UTF_8)));
+		long streamingPeak = peakHeapDuring(() -> serializer.serialize(catalog, sink, RDFLanguages.JSONLD));
+		logger.info("Catalog with 50000 resources ({} bytes): peak heap {} MB via String, {} MB via OutputStream",
+				documentSize, stringPeak >> 20, streamingPeak >> 20);
+		Assert.assertTrue(streamingPeak < stringPeak);
+	}
+
+	/**
+	 * Measures the time to the first serialized message in a fresh JVM (including the one-time setup of the shared configuration),
+	 * and the time to create the 1000th Serializer, with the default configuration and with a shared customized one
+	 */
+	@Test
+	public void serializerStartup() throws Exception {
+		Process probe = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+				"-cp", System.getProperty("java.class.path"), StartupProbe.class.getName())
+				.redirectError(ProcessBuilder.Redirect.DISCARD)
+				.start();
+		String output = new String(probe.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+		Assert.assertEquals(0, probe.waitFor());
+		long firstMessage = Long.parseLong(output);
+
+		SerializerConfig compact = SerializerConfig.defaults().withOutputProfile(OutputProfile.COMPACT);
+		List<Serializer> serializers = new ArrayList<>();
+		long defaultThousandth = 0, configThousandth = 0;
+		for (int i = 0; i < 1000; i++) {
+			long start = System.nanoTime();
+			serializers.add(new Serializer());
+			defaultThousandth = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			serializers.add(compact.newSerializer());
+			configThousandth = System.nanoTime() - start;
+		}
+		logger.info("Startup: first message after {} ms in a fresh JVM; 1000th Serializer created in {} ns with the default configuration, {} ns with a shared one",
+				TimeUnit.NANOSECONDS.toMillis(firstMessage), defaultThousandth, configThousandth);
+		Assert.assertEquals(2000, serializers.size());
+		Assert.assertTrue(defaultThousandth < firstMessage / 100);
+		Assert.assertTrue(configThousandth < firstMessage / 100);
+	}
+
+	/**
+	 * Entry point of the JVM started by {@link #serializerStartup()}. Prints the nanoseconds until the first message is serialized
+	 */
+	public static class StartupProbe {
+		public static void main(String[] args) throws IOException {
+			long start = System.nanoTime();
+			new Serializer().serialize(new ResourceBuilder(URI.create("https://example.org/resource/0"))
+					._title_(Util.asList(new TypedLiteral("Resource 0", "en")))
+					.build());
+			System.out.println(System.nanoTime() - start);
+		}
+	}
+
+	private interface IORunnable {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Runs the action and reports the peak heap usage (summed over all heap pools) in the meantime
+	 * @param action the action to be measured
+	 * @return peak heap usage in bytes
+	 */
+	private static long peakHeapDuring(IORunnable action) throws IOException {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		System.gc();
+		heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+		action.run();
+		long peak = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/**
+	 * Sink which discards all bytes, only counting them
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/**
+	 * Serializes the test fixtures with the given number of threads
+	 * @param threads number of threads
+	 * @param operations total number of serialize calls
+	 * @return achieved throughput in operations per second
+	 */
+	private double serializeFixtures(int threads, int operations) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			int perThread = operations / threads;
+			List<Future<?>> futures = new ArrayList<>();
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				int offset = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < perThread; i++) {
+						serializer.serialize(fixtures.get((offset + i) % fixtures.size()));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			long duration = System.nanoTime() - start;
+			return (double) perThread * threads / duration * TimeUnit.SECONDS.toNanos(1);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
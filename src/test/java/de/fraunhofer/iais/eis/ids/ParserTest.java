@@ -2,13 +2,29 @@ package de.fraunhofer.iais.eis.ids;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import de.fraunhofer.iais.eis.*;
 import org.junit.Assert;
 import org.junit.Test;
 
+import de.fraunhofer.iais.eis.ids.jsonld.JsonLdContextCache;
+import de.fraunhofer.iais.eis.ids.jsonld.ParserEngine;
+import de.fraunhofer.iais.eis.ids.jsonld.RootSelectionStrategy;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import de.fraunhofer.iais.eis.util.TypedLiteral;
+import de.fraunhofer.iais.eis.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -326,4 +342,257 @@ public class ParserTest {
 	}
 
 
+
+	/**
+	 * Both parser engines must produce the same objects for all test fixtures
+	 *
+	 * @throws IOException if source file cannot be read or if parsing fails
+	 */
+	@Test
+	public void graphEngineMatchesSparqlEngine() throws IOException {
+		Serializer sparqlSerializer = new Serializer();
+		Serializer graphSerializer = new Serializer();
+		graphSerializer.setParserEngine(ParserEngine.GRAPH);
+
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			String input = SerializerUtil.readResourceToString(fixture.getKey());
+			Object viaSparql = sparqlSerializer.deserialize(input, fixture.getValue());
+			Object viaGraph = graphSerializer.deserialize(input, fixture.getValue());
+			assertEquals(fixture.getKey(), viaSparql, viaGraph);
+			assertEquals(fixture.getKey(), sparqlSerializer.serialize(viaSparql), sparqlSerializer.serialize(viaGraph));
+		}
+	}
+
+	/**
+	 * Both parser engines must reject invalid input with the same error messages
+	 *
+	 * @throws IOException if source file cannot be read
+	 */
+	@Test
+	public void graphEngineReportsSameErrors() throws IOException {
+		String message = SerializerUtil.readResourceToString("MessageProcessedNotificationMessage.jsonld");
+		String missingMandatoryField = message.replace(",\n  \"ids:modelVersion\" : \"4.0.0\"", "");
+		String multipleValues = message.replace("\"ids:modelVersion\" : \"4.0.0\"", "\"ids:modelVersion\" : [\"4.0.0\", \"4.1.0\"]");
+		String rubbish = SerializerUtil.readResourceToString("ConnectorWithRubbishResource.jsonld");
+
+		assertNotEquals(message, missingMandatoryField);
+		assertNotEquals(message, multipleValues);
+
+		String mandatoryError = parserErrorMessage(ParserEngine.SPARQL, missingMandatoryField, Message.class);
+		assertTrue(mandatoryError.contains("ids:modelVersion"));
+		assertEquals(mandatoryError, parserErrorMessage(ParserEngine.GRAPH, missingMandatoryField, Message.class));
+
+		String multipleValuesError = parserErrorMessage(ParserEngine.SPARQL, multipleValues, Message.class);
+		assertTrue(multipleValuesError.contains("has multiple values for modelVersion"));
+		assertTrue(parserErrorMessage(ParserEngine.GRAPH, multipleValues, Message.class).contains("has multiple values for modelVersion"));
+
+		assertEquals(parserErrorMessage(ParserEngine.SPARQL, rubbish, Connector.class), parserErrorMessage(ParserEngine.GRAPH, rubbish, Connector.class));
+	}
+
+	/**
+	 * Query templates are cached per class. The second object of the same class must not see the values of the first one
+	 *
+	 * @throws IOException if source file cannot be read or if parsing fails
+	 */
+	@Test
+	public void queryTemplatesAreBoundToEachObject() throws IOException {
+		String first = SerializerUtil.readResourceToString("MessageProcessedNotificationMessage.jsonld");
+		String second = first.replace("https://w3id.org/7aff0c68-c201-43ec-9d6d-7f453c7b7a37", "https://w3id.org/second-message")
+				.replace("\"ids:modelVersion\" : \"4.0.0\"", "\"ids:modelVersion\" : \"4.1.0\"");
+
+		Serializer serializer = new Serializer();
+		Message firstMessage = serializer.deserialize(first, Message.class);
+		Message secondMessage = serializer.deserialize(second, Message.class);
+
+		assertEquals("https://w3id.org/7aff0c68-c201-43ec-9d6d-7f453c7b7a37", firstMessage.getId().toString());
+		assertEquals("4.0.0", firstMessage.getModelVersion());
+		assertEquals("https://w3id.org/second-message", secondMessage.getId().toString());
+		assertEquals("4.1.0", secondMessage.getModelVersion());
+	}
+
+	/**
+	 * The index based root selection must pick the same objects as the CONSTRUCT queries for the test fixtures
+	 *
+	 * @throws IOException if source file cannot be read or if parsing fails
+	 */
+	@Test
+	public void rootSelectionStrategiesAgree() throws IOException {
+		Serializer indexSerializer = new Serializer();
+		Serializer querySerializer = new Serializer();
+		querySerializer.setRootSelectionStrategy(RootSelectionStrategy.CONSTRUCT_QUERY);
+		assertEquals(RootSelectionStrategy.GRAPH_INDEX, indexSerializer.getRootSelectionStrategy());
+
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			String input = SerializerUtil.readResourceToString(fixture.getKey());
+			assertEquals(fixture.getKey(), querySerializer.deserialize(input, fixture.getValue()), indexSerializer.deserialize(input, fixture.getValue()));
+		}
+	}
+
+	/**
+	 * Values of lists used to be concatenated with "||" and split again, which broke values containing the delimiter or quotes
+	 *
+	 * @throws IOException if parsing fails
+	 */
+	@Test
+	public void listValuesAreNotSplitOrEscaped() throws IOException {
+		Resource resource = new ResourceBuilder(URI.create("https://example.org/resource"))
+				._keyword_(Util.asList(new TypedLiteral("left||right", "en"), new TypedLiteral("a \"quoted\" keyword", "de")))
+				.build();
+
+		for (ParserEngine engine : ParserEngine.values()) {
+			Serializer serializer = new Serializer();
+			serializer.setParserEngine(engine);
+			Resource parsed = serializer.deserialize(serializer.serialize(resource), Resource.class);
+
+			assertEquals(engine.toString(), 2, parsed.getKeyword().size());
+			assertTrue(engine.toString(), parsed.getKeyword().contains(new TypedLiteral("left||right", "en")));
+			assertTrue(engine.toString(), parsed.getKeyword().contains(new TypedLiteral("a \"quoted\" keyword", "de")));
+		}
+	}
+
+	/**
+	 * Binary input is decoded as UTF-8, independent of the platform charset
+	 *
+	 * @throws IOException if parsing fails
+	 */
+	@Test
+	public void deserializeBinaryInput() throws IOException {
+		TypedLiteral title = new TypedLiteral("Größe und Maß \u2013 \u6570\u636e", "de");
+		Resource resource = new ResourceBuilder(URI.create("https://example.org/resource"))
+				._title_(Util.asList(title))
+				.build();
+		Serializer serializer = new Serializer();
+		byte[] bytes = serializer.serialize(resource).getBytes(StandardCharsets.UTF_8);
+
+		assertEquals(title, serializer.deserialize(bytes, Resource.class).getTitle().get(0));
+		assertEquals(title, serializer.deserialize(new ByteArrayInputStream(bytes), Resource.class).getTitle().get(0));
+
+		ByteBuffer heapBuffer = ByteBuffer.allocate(bytes.length + 4);
+		heapBuffer.put(new byte[2]).put(bytes).flip().position(2);
+		assertEquals(title, serializer.deserialize(heapBuffer, Resource.class).getTitle().get(0));
+		assertEquals(2, heapBuffer.position());
+
+		ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+		directBuffer.put(bytes).flip();
+		assertEquals(title, serializer.deserialize(directBuffer, Resource.class).getTitle().get(0));
+		assertEquals(0, directBuffer.position());
+	}
+
+	/**
+	 * One serializer (and thereby one parser) is shared by many threads, each parsing a different message.
+	 * Every thread must get exactly the object of its own input
+	 *
+	 * @throws Exception if source file cannot be read or if one of the threads fails
+	 */
+	@Test
+	public void concurrentParsingWithSharedParser() throws Exception {
+		String template = SerializerUtil.readResourceToString("MessageProcessedNotificationMessage.jsonld");
+		for (ParserEngine engine : ParserEngine.values()) {
+			Serializer serializer = new Serializer();
+			serializer.setParserEngine(engine);
+
+			ExecutorService executor = Executors.newFixedThreadPool(16);
+			try {
+				List<Future<Message>> results = new ArrayList<>();
+				for (int i = 0; i < 400; i++) {
+					String input = template.replace("https://w3id.org/7aff0c68-c201-43ec-9d6d-7f453c7b7a37", "https://w3id.org/message/" + i)
+							.replace("\"ids:modelVersion\" : \"4.0.0\"", "\"ids:modelVersion\" : \"4.0." + i + "\"");
+					results.add(executor.submit(() -> serializer.deserialize(input, Message.class)));
+				}
+				for (int i = 0; i < results.size(); i++) {
+					Message message = results.get(i).get();
+					assertEquals(engine.toString(), "https://w3id.org/message/" + i, message.getId().toString());
+					assertEquals(engine.toString(), "4.0." + i, message.getModelVersion());
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * A preloaded remote context is resolved from the cache, even if remote loading is disabled
+	 *
+	 * @throws IOException if source file cannot be read or if parsing fails
+	 */
+	@Test
+	public void preloadedContextWorksOffline() throws IOException {
+		String contextIri = "https://example.org/contexts/ids-prefixes.jsonld";
+		String inlineContext = SerializerUtil.readResourceToString("MessageProcessedNotificationMessage.jsonld");
+		String remoteContext = inlineContext.replace("\"@context\" : {\n    \"ids\" : \"https://w3id.org/idsa/core/\",\n    \"idsc\" : \"https://w3id.org/idsa/code/\"\n  }",
+				"\"@context\" : \"" + contextIri + "\"");
+		assertNotEquals(inlineContext, remoteContext);
+
+		JsonLdContextCache.preload(contextIri, new StringReader("{ \"@context\" : { \"ids\" : \"https://w3id.org/idsa/core/\", \"idsc\" : \"https://w3id.org/idsa/code/\" } }"));
+		assertTrue(JsonLdContextCache.isCached(contextIri));
+		JsonLdContextCache.setRemoteLoadingEnabled(false);
+		try {
+			Serializer serializer = new Serializer();
+			assertEquals(serializer.deserialize(inlineContext, Message.class), serializer.deserialize(remoteContext, Message.class));
+
+			//Unknown contexts must not be downloaded
+			String unknownContext = remoteContext.replace(contextIri, "https://example.org/contexts/unknown.jsonld");
+			try {
+				serializer.deserialize(unknownContext, Message.class);
+				fail("Parsing with an unknown context should fail while remote loading is disabled");
+			} catch (IOException expected) {
+				assertFalse(JsonLdContextCache.isCached("https://example.org/contexts/unknown.jsonld"));
+			}
+		} finally {
+			JsonLdContextCache.setRemoteLoadingEnabled(true);
+		}
+	}
+
+	/**
+	 * The IDS contexts are bundled with the library, so messages referencing them can be parsed without network access
+	 *
+	 * @throws IOException if source file cannot be read or if parsing fails
+	 */
+	@Test
+	public void bundledIdsContextsWorkOffline() throws IOException {
+		assertTrue(JsonLdContextCache.isCached("https://w3id.org/idsa/contexts/4.0.0/context.jsonld"));
+		assertTrue(JsonLdContextCache.isCached("https://w3id.org/idsa/contexts/4.0.0/context.json"));
+		assertTrue(JsonLdContextCache.isCached("https://w3id.org/idsa/contexts/3.0.0/context.jsonld"));
+		JsonLdContextCache.setRemoteLoadingEnabled(false);
+		try {
+			Serializer serializer = new Serializer();
+			BaseConnector connector = serializer.deserialize(SerializerUtil.readResourceToString("Connector1.jsonld"), BaseConnector.class);
+			assertEquals(URI.create("http://companyA.com/ids/participant"), connector.getCurator());
+			assertNotNull(serializer.deserialize(SerializerUtil.readResourceToString("Catalog1.jsonld"), Catalog.class));
+		} finally {
+			JsonLdContextCache.setRemoteLoadingEnabled(true);
+		}
+	}
+
+	@Test
+	public void enumValuesByIriAndPrefixedName() throws IOException {
+		String template = "{\"@context\":{\"ids\":\"https://w3id.org/idsa/core/\",\"idsc\":\"https://w3id.org/idsa/code/\"}," +
+				"\"@type\":\"ids:Resource\",\"@id\":\"https://example.org/resource\",\"ids:language\":[LANGUAGES]}";
+		String languages = template.replace("LANGUAGES", "\"idsc:DE\",{\"@id\":\"https://w3id.org/idsa/code/EN\"}");
+		String unknownLanguage = template.replace("LANGUAGES", "{\"@id\":\"https://w3id.org/idsa/code/NO_LANGUAGE\"}");
+		for (ParserEngine engine : ParserEngine.values()) {
+			Serializer serializer = new Serializer();
+			serializer.setParserEngine(engine);
+			Resource resource = serializer.deserialize(languages, Resource.class);
+			assertEquals(2, resource.getLanguage().size());
+			assertTrue(resource.getLanguage().contains(Language.DE));
+			assertTrue(resource.getLanguage().contains(Language.EN));
+
+			//Fails with an IOException
+			parserErrorMessage(engine, unknownLanguage, Resource.class);
+		}
+	}
+
+	private static String parserErrorMessage(ParserEngine engine, String input, Class<?> targetClass) {
+		Serializer serializer = new Serializer();
+		serializer.setParserEngine(engine);
+		try {
+			serializer.deserialize(input, targetClass);
+		} catch (IOException e) {
+			return e.getMessage();
+		}
+		fail("Parsing with " + engine + " should have failed");
+		return null;
+	}
+
 }
@@ -2,9 +2,16 @@ package de.fraunhofer.iais.eis.ids;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.jsonld.ContextCollectionMode;
+import de.fraunhofer.iais.eis.ids.jsonld.JsonLdContextCache;
+import de.fraunhofer.iais.eis.ids.jsonld.OutputProfile;
 import de.fraunhofer.iais.eis.ids.jsonld.Serializer;
+import de.fraunhofer.iais.eis.ids.jsonld.SerializerConfig;
 import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.JsonPreprocessor;
+import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.PreprocessorChain;
 import de.fraunhofer.iais.eis.ids.jsonld.preprocessing.TypeNamePreprocessor;
+import de.fraunhofer.iais.eis.ids.jsonld.util.MixinHelper;
+import de.fraunhofer.iais.eis.ids.jsonld.util.XsdDateTimeHelper;
 import de.fraunhofer.iais.eis.util.PlainLiteral;
 import de.fraunhofer.iais.eis.util.RdfResource;
 import de.fraunhofer.iais.eis.util.TypedLiteral;
@@ -12,6 +19,7 @@ import de.fraunhofer.iais.eis.util.Util;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFLanguages;
 import org.junit.Assert;
@@ -37,7 +45,13 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SerializerTest {
@@ -240,12 +254,15 @@ public class SerializerTest {
 	public void legacySerializationsJsonld_validate() throws IOException {
 		Connector connector = null;
 		Connector connector2 = null;
+		JsonPreprocessor preprocessor = new TypeNamePreprocessor();
 		try {
-			serializer.addPreprocessor(new TypeNamePreprocessor());
+			serializer.addPreprocessor(preprocessor);
 			connector = serializer.deserialize(SerializerUtil.readResourceToString("Connector1.jsonld"), Connector.class);
 			connector2 = serializer.deserialize(SerializerUtil.readResourceToString("Connector2.jsonld"), Connector.class);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			serializer.removePreprocessor(preprocessor);
 		}
 		Assert.assertNotNull(connector);
 		Assert.assertNotNull(connector2);
@@ -261,12 +278,114 @@ public class SerializerTest {
 		Assert.assertNotNull(model);
 	}
 
+	@Test
+	public void typeNamePreprocessorOutput() throws IOException {
+		String legacy = "{\"@type\":\"https://w3id.org/idsa/core/Resource\"," +
+				"\"https://w3id.org/idsa/core/language\":{\"@id\":\"idsc:EN\"}," +
+				"\"keyword\":[{\"@id\":\"https://example.com/a\"},{},\"b\"]," +
+				"\"created\":{\"@value\":\"2020-01-01T00:00:00Z\",\"@type\":\"xsd:dateTime\"}," +
+				"\"count\":{\"@type\":\"xsd:integer\",\"@value\":\"42\"}," +
+				"\"@id\":\"https://example.com/resource\"}";
+		String expected = "{\"@type\":\"ids:Resource\"," +
+				"\"ids:language\":\"idsc:EN\"," +
+				"\"ids:keyword\":[\"b\",\"https://example.com/a\"]," +
+				"\"ids:created\":\"2020-01-01T00:00:00Z\"," +
+				"\"ids:count\":42," +
+				"\"@id\":\"https://example.com/resource\"}";
+		Assert.assertEquals(expected, new TypeNamePreprocessor().preprocess(legacy));
+
+		//Preprocessing already preprocessed messages changes nothing
+		for (String fixture : Arrays.asList("Connector1.jsonld", "Connector2.jsonld", "Catalog1.jsonld", "Resource1.jsonld")) {
+			String input = SerializerUtil.readResourceToString(fixture);
+			String output = new TypeNamePreprocessor().preprocess(input);
+			Assert.assertEquals(new ObjectMapper().readTree(output), new ObjectMapper().readTree(new TypeNamePreprocessor().preprocess(output)));
+		}
+	}
+
+	/**
+	 * The files in preprocessed/ were produced by the tree based TypeNamePreprocessor, which read the whole message into a map.
+	 * The streaming implementation must yield the identical output for every test resource
+	 * @throws IOException thrown in case reading the test resources fails
+	 */
+	@Test
+	public void typeNamePreprocessorMatchesTreeBasedOutput() throws IOException {
+		File[] resources = new File("src/test/resources").listFiles(File::isFile);
+		Assert.assertNotNull(resources);
+		for (File resource : resources) {
+			String input = SerializerUtil.readResourceToString(resource.getName());
+			String expected = SerializerUtil.readResourceToString("preprocessed/" + resource.getName());
+			Assert.assertEquals(resource.getName(), expected, new TypeNamePreprocessor().preprocess(input));
+		}
+	}
+
+	@Test
+	public void preprocessorsAreAppliedOnDeserialization() throws IOException {
+		String legacy = "{\"@type\":\"https://w3id.org/idsa/core/Resource\",\"keyword\":[{\"@id\":\"https://example.com/a\"},\"b\"]," +
+				"\"created\":{\"@value\":\"2020-01-01T00:00:00Z\",\"@type\":\"xsd:dateTime\"}}";
+		List<JsonPreprocessor> stages = Arrays.asList(new TypeNamePreprocessor(), new TypeNamePreprocessor());
+		PreprocessorChain sequential = new PreprocessorChain(stages, false);
+		PreprocessorChain fused = new PreprocessorChain(stages, true);
+		String expected = sequential.process(legacy);
+		Assert.assertEquals(expected, fused.process(legacy));
+		Assert.assertEquals(expected, fused.process(new ByteArrayInputStream(legacy.getBytes(StandardCharsets.UTF_8))));
+		for (PreprocessorChain.StageTiming timing : fused.getTimings()) {
+			Assert.assertEquals(2, timing.getInvocations());
+		}
+
+		Serializer preprocessingSerializer = new Serializer();
+		preprocessingSerializer.setFusedPreprocessing(true);
+		List<String> inputs = Collections.synchronizedList(new ArrayList<>());
+		preprocessingSerializer.addPreprocessor(new JsonPreprocessor() {
+			@Override
+			public String preprocess(String input) {
+				inputs.add(input);
+				return input;
+			}
+
+			@Override
+			public void enableRDFValidation(boolean validate) {
+			}
+		});
+		String contractOffer = SerializerUtil.readResourceToString("ContractOfferValueForArray.jsonld");
+		Assert.assertNotNull(preprocessingSerializer.deserialize(contractOffer, ContractOffer.class));
+		Assert.assertNotNull(preprocessingSerializer.deserialize(contractOffer.getBytes(StandardCharsets.UTF_8), ContractOffer.class));
+		Assert.assertEquals(Arrays.asList(contractOffer, contractOffer), inputs);
+		Assert.assertEquals(2, preprocessingSerializer.getPreprocessorTimings().get(0).getInvocations());
+	}
+
 	@Test
 	public void calendarSerialization() throws IOException {
 		String time = serializer.serialize(now);
 		System.out.println(time);
 	}
 
+	@Test
+	public void mixinIndexMatchesClasspathScan() {
+		Map<Class<?>, Class<?>> mixins = MixinHelper.scanMixins();
+		Assert.assertFalse(mixins.isEmpty());
+		Assert.assertEquals(MixinHelper.scanClasspath(), mixins);
+		Assert.assertSame(mixins, MixinHelper.scanMixins());
+	}
+
+	@Test
+	public void xsdDateTimeStampMatchesSimpleDateFormat() throws Exception {
+		DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+		List<XMLGregorianCalendar> calendars = Arrays.asList(now,
+				datatypeFactory.newXMLGregorianCalendar("2020-02-29T23:59:59.999+14:00"),
+				datatypeFactory.newXMLGregorianCalendar("2020-01-01T00:00:00.123456-03:30"),
+				datatypeFactory.newXMLGregorianCalendar("2020-12-31T24:00:00Z"),
+				datatypeFactory.newXMLGregorianCalendar("0999-06-01T12:00:00"));
+		for (XMLGregorianCalendar calendar : calendars) {
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+			format.setCalendar(calendar.toGregorianCalendar());
+			String expected = format.format(calendar.toGregorianCalendar().getTime());
+			String formatted = XsdDateTimeHelper.format(calendar);
+			Assert.assertEquals(expected, formatted);
+			Assert.assertEquals(datatypeFactory.newXMLGregorianCalendar(GregorianCalendar.from(ZonedDateTime.parse(formatted))),
+					XsdDateTimeHelper.parse(formatted));
+		}
+	}
+
 	@Test
 	@Ignore // TODO enable this test as soon as we can work with unknown namespaces
 	public void serializeForeignProperties() throws Exception {
@@ -437,6 +556,13 @@ public class SerializerTest {
 		Assert.assertTrue(serialized.contains("\"exp\" : \"ids:exp\"")); // ensure DatPayload fields are added to the context
 	}
 
+	@Test
+	public void noJwtAttributesInContextOfMessages() throws IOException {
+		String serialized = serializer.serialize(basicInstance);
+		Assert.assertTrue(serialized.contains("ids:DynamicAttributeToken"));
+		Assert.assertFalse(serialized.contains("\"exp\" : \"ids:exp\""));
+	}
+
 
 
 	@Test
@@ -890,6 +1016,35 @@ public class SerializerTest {
 		}
 	}
 
+	/**
+	 * Serializing the same objects concurrently from many threads must yield exactly the output of a sequential run
+	 * @throws Exception thrown in case parsing the test resources or one of the threads fails
+	 */
+	@Test
+	public void concurrentSerializationMatchesSequential() throws Exception {
+		List<Object> objects = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			Object parsed = serializer.deserialize(SerializerUtil.readResourceToString(fixture.getKey()), fixture.getValue());
+			objects.add(parsed);
+			expected.add(serializer.serialize(parsed));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				int index = i % objects.size();
+				results.add(executor.submit(() -> expected.get(index).equals(serializer.serialize(objects.get(index)))));
+			}
+			for (Future<Boolean> result : results) {
+				Assert.assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	/**
 	 * This test makes sure that, in case one violates the "at most once" constraint, an appropriate exception is thrown
 	 * @throws IOException thrown in case the loading of the resource fails
@@ -963,6 +1118,232 @@ public class SerializerTest {
 		Assert.assertTrue(contractResource.getType().equals("xsd:duration") || contractResource.getType().equals("http://www.w3.org/2001/XMLSchema#duration"));
 	}
 
+	/**
+	 * The prefixes used in the type of an RdfResource are only known at runtime and must still end up in the @context,
+	 * although the context plan of the class is cached
+	 * @throws IOException thrown in case serialization fails
+	 */
+	@Test
+	public void contextContainsPrefixesOfRdfResourceTypes() throws IOException {
+		Constraint typedConstraint = new ConstraintBuilder()
+				._leftOperand_(LeftOperand.ELAPSED_TIME)
+				._operator_(BinaryOperator.SHORTER_EQ)
+				._rightOperand_(new RdfResource("P20M", URI.create("xsd:duration")))
+				.build();
+		String serialized = serializer.serialize(typedConstraint);
+		Assert.assertTrue(serialized.contains("\"xsd\" : \"http://www.w3.org/2001/XMLSchema#\""));
+		Assert.assertTrue(serialized.contains("\"idsc\" : \"https://w3id.org/idsa/code/\""));
+	}
+
+	/**
+	 * Every JSON-LD test resource must either be listed in the fixtures used for comparing serialization modes, or be known as unparseable
+	 */
+	@Test
+	public void allFixturesCoverTestResources() {
+		String[] resources = new File("src/test/resources").list((dir, name) -> name.endsWith(".jsonld"));
+		Assert.assertNotNull(resources);
+		for (String resource : resources) {
+			Assert.assertTrue(resource, SerializerUtil.allFixtures().containsKey(resource) || SerializerUtil.unparseableFixtures().containsKey(resource));
+		}
+	}
+
+	/**
+	 * Collecting the @context while writing must yield byte-identical output to the reflective pre-pass
+	 * @throws IOException thrown in case parsing the test resources or serialization fails
+	 */
+	@Test
+	public void singlePassContextCollectionMatchesPrePass() throws IOException {
+		Serializer singlePassSerializer = new Serializer();
+		singlePassSerializer.setContextCollectionMode(ContextCollectionMode.SINGLE_PASS);
+
+		List<Object> objects = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.allFixtures().entrySet()) {
+			objects.add(serializer.deserialize(SerializerUtil.readResourceToString(fixture.getKey()), fixture.getValue()));
+		}
+		objects.add(new ConstraintBuilder()
+				._leftOperand_(LeftOperand.ELAPSED_TIME)
+				._operator_(BinaryOperator.SHORTER_EQ)
+				._rightOperand_(new RdfResource("P20M", URI.create("xsd:duration")))
+				.build());
+
+		for (Object object : objects) {
+			Assert.assertEquals(serializer.serialize(object), singlePassSerializer.serialize(object));
+		}
+		Assert.assertEquals(serializer.serialize(objects), singlePassSerializer.serialize(objects));
+	}
+
+	/**
+	 * Streaming to an OutputStream or a Writer must yield the same JSON-LD as serializing to a String, collections included
+	 * @throws IOException thrown in case parsing the test resources or serialization fails
+	 */
+	@Test
+	public void streamingSerializationMatchesStringSerialization() throws IOException {
+		List<Object> objects = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			objects.add(serializer.deserialize(SerializerUtil.readResourceToString(fixture.getKey()), fixture.getValue()));
+		}
+		objects.add(Util.asList(basicInstance, nestedInstance));
+		objects.add(new ArrayList<>());
+
+		for (Object object : objects) {
+			String expected = serializer.serialize(object);
+
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			serializer.serialize(object, os, RDFLanguages.JSONLD);
+			Assert.assertEquals(expected, new String(os.toByteArray(), StandardCharsets.UTF_8));
+
+			StringWriter writer = new StringWriter();
+			serializer.serialize(object, writer, RDFLanguages.JSONLD);
+			Assert.assertEquals(expected, writer.toString());
+		}
+
+		ByteArrayOutputStream turtle = new ByteArrayOutputStream();
+		serializer.serialize(basicInstance, turtle, RDFLanguages.TURTLE);
+		Model model = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(model, new ByteArrayInputStream(turtle.toByteArray()), RDFLanguages.TURTLE);
+		Assert.assertFalse(model.isEmpty());
+
+		for (Lang format : Arrays.asList(RDFLanguages.TURTLE, RDFLanguages.NTRIPLES, RDFLanguages.RDFXML)) {
+			StringWriter writer = new StringWriter();
+			serializer.serialize(basicInstance, writer, format);
+			Model streamed = ModelFactory.createDefaultModel();
+			RDFDataMgr.read(streamed, new StringReader(writer.toString()), null, format);
+			Model buffered = ModelFactory.createDefaultModel();
+			RDFDataMgr.read(buffered, new StringReader(serializer.serialize(basicInstance, format)), null, format);
+			Assert.assertFalse(streamed.isEmpty());
+			Assert.assertTrue(streamed.isIsomorphicWith(buffered));
+		}
+	}
+
+	/**
+	 * Collections can be streamed from an Iterator or a Stream, optionally with one shared @context instead of one per element
+	 * @throws IOException thrown in case serialization or parsing fails
+	 */
+	@Test
+	public void streamCollectionWithHoistedContext() throws IOException {
+		List<Object> objects = Util.asList(basicInstance, nestedInstance, new ContractOfferBuilder().build());
+
+		StringWriter fromIterator = new StringWriter();
+		serializer.serializeCollection(objects.iterator(), fromIterator, false);
+		Assert.assertEquals(serializer.serialize(objects), fromIterator.toString());
+
+		ByteArrayOutputStream hoisted = new ByteArrayOutputStream();
+		serializer.serializeCollection(objects.stream(), hoisted, true);
+		String hoistedString = new String(hoisted.toByteArray(), StandardCharsets.UTF_8);
+		Assert.assertEquals(hoistedString.indexOf("@context"), hoistedString.lastIndexOf("@context"));
+		Assert.assertTrue(hoistedString.contains("@graph"));
+
+		Model perElementContext = ModelFactory.createDefaultModel();
+		readToModel(perElementContext, fromIterator.toString());
+		Model sharedContext = ModelFactory.createDefaultModel();
+		readToModel(sharedContext, hoistedString);
+		Assert.assertTrue(perElementContext.isIsomorphicWith(sharedContext));
+	}
+
+	/**
+	 * The compact profile must not contain any whitespace between tokens, but describe the same graph as the pretty one
+	 * @throws IOException thrown in case serialization or parsing fails
+	 */
+	@Test
+	public void compactOutputProfile() throws IOException {
+		Serializer compactSerializer = new Serializer();
+		compactSerializer.setOutputProfile(OutputProfile.COMPACT);
+
+		String pretty = serializer.serialize(nestedInstance);
+		String compact = compactSerializer.serialize(nestedInstance);
+		Assert.assertTrue(compact.length() < pretty.length());
+		Assert.assertFalse(compact.contains("\n"));
+		Assert.assertFalse(compact.contains("\" : "));
+
+		Model prettyModel = ModelFactory.createDefaultModel();
+		readToModel(prettyModel, pretty);
+		Model compactModel = ModelFactory.createDefaultModel();
+		readToModel(compactModel, compact);
+		Assert.assertTrue(prettyModel.isIsomorphicWith(compactModel));
+
+		Assert.assertFalse(compactSerializer.serialize(Util.asList(basicInstance, nestedInstance)).contains("\n"));
+		Model turtleModel = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(turtleModel, new ByteArrayInputStream(compactSerializer.serialize(nestedInstance, RDFLanguages.TURTLE).getBytes(StandardCharsets.UTF_8)), RDFLanguages.TURTLE);
+		Assert.assertTrue(prettyModel.isIsomorphicWith(turtleModel));
+	}
+
+	/**
+	 * Changing the settings of a Serializer must neither affect the shared default configuration nor other Serializers
+	 * created from the same configuration
+	 * @throws IOException thrown in case serialization fails
+	 */
+	@Test
+	public void serializerConfigIsCopyOnWrite() throws IOException {
+		SerializerConfig compact = SerializerConfig.defaults().withOutputProfile(OutputProfile.COMPACT);
+		Assert.assertEquals(OutputProfile.PRETTY, SerializerConfig.defaults().getOutputProfile());
+		Assert.assertSame(compact, compact.withOutputProfile(OutputProfile.COMPACT));
+
+		Serializer first = compact.newSerializer();
+		Serializer second = compact.newSerializer();
+		first.setOutputProfile(OutputProfile.PRETTY);
+		first.addPreprocessor(new TypeNamePreprocessor());
+		Assert.assertEquals(OutputProfile.COMPACT, second.getOutputProfile());
+		Assert.assertTrue(second.getConfig().getPreprocessors().isEmpty());
+		Assert.assertSame(compact, second.getConfig());
+		Assert.assertEquals(1, first.getConfig().getPreprocessors().size());
+		Assert.assertTrue(new Serializer().getConfig().getPreprocessors().isEmpty());
+
+		Assert.assertEquals(serializer.serialize(nestedInstance), first.serialize(nestedInstance));
+		Assert.assertFalse(second.serialize(nestedInstance).contains("\n"));
+		Assert.assertEquals(second.serialize(nestedInstance), new Serializer(second.getConfig()).serialize(nestedInstance));
+	}
+
+	/**
+	 * Setters called concurrently on the same Serializer must not lose each other's changes
+	 * @throws Exception thrown in case one of the threads fails
+	 */
+	@Test
+	public void concurrentSettersKeepAllChanges() throws Exception {
+		Serializer shared = new Serializer();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(executor.submit(() -> shared.addPreprocessor(new TypeNamePreprocessor())));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		Assert.assertEquals(200, shared.getConfig().getPreprocessors().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void serializerRequiresConfig() {
+		new Serializer(null);
+	}
+
+	/**
+	 * The triples emitted directly from the object graph must be the same as the ones obtained by parsing the JSON-LD,
+	 * for every parseable test resource (including those referencing the bundled IDS context)
+	 * @throws IOException thrown in case parsing the test resources or serialization fails
+	 */
+	@Test
+	public void directTripleEmissionMatchesJsonLdParsing() throws IOException {
+		List<Object> objects = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.allFixtures().entrySet()) {
+			objects.add(serializer.deserialize(SerializerUtil.readResourceToString(fixture.getKey()), fixture.getValue()));
+		}
+		objects.add(basicInstance);
+		objects.add(nestedInstance);
+		objects.add(Util.asList(basicInstance, nestedInstance));
+
+		for (Object object : objects) {
+			Model fromJsonLd = ModelFactory.createDefaultModel();
+			JsonLdContextCache.read(fromJsonLd, serializer.serialize(object));
+
+			for (Lang format : Arrays.asList(RDFLanguages.NTRIPLES, RDFLanguages.TURTLE, RDFLanguages.RDFXML)) {
+				Model direct = ModelFactory.createDefaultModel();
+				RDFDataMgr.read(direct, new ByteArrayInputStream(serializer.serialize(object, format).getBytes(StandardCharsets.UTF_8)), format);
+				Assert.assertTrue(fromJsonLd.isIsomorphicWith(direct));
+			}
+		}
+	}
+
 	@Test
 	public void testPayloadInputs() throws IOException {
 		String string1 = "This contains @context but is not JSON-LD";
@@ -3,7 +3,10 @@ package de.fraunhofer.iais.eis.ids;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import de.fraunhofer.iais.eis.*;
 import org.apache.commons.io.IOUtils;
 
 /**
@@ -27,5 +30,52 @@ public class SerializerUtil {
     public static String stripWhitespaces(String input) {
         return input.replaceAll("\\s+", "");
     }
-    
+
+    /**
+     * Test resources which carry their @context inline (i.e. can be parsed without network access),
+     * mapped to the class they are parsed to
+     * @return map from resource name to target class
+     */
+    public static Map<String, Class<?>> localFixtures() {
+        Map<String, Class<?>> fixtures = new LinkedHashMap<>();
+        fixtures.put("Catalog2.jsonld", ResourceCatalog.class);
+        fixtures.put("Connector2.jsonld", Connector.class);
+        fixtures.put("Connector3.jsonld", BaseConnector.class);
+        fixtures.put("Connector5.jsonld", BaseConnector.class);
+        fixtures.put("Resource1.jsonld", Resource.class);
+        fixtures.put("Permission.jsonld", Permission.class);
+        fixtures.put("ArtifactRequestMessage.jsonld", Message.class);
+        fixtures.put("ContractRejectionMessage.jsonld", Message.class);
+        fixtures.put("MessageProcessedNotificationMessage.jsonld", Message.class);
+        fixtures.put("IdsLabDatabaseBackup.jsonld", ConnectorCatalog.class);
+        return fixtures;
+    }
+
+    /**
+     * All test resources which can be parsed to an object, including those referencing the IDS context, which is bundled with the library
+     * (see {@link de.fraunhofer.iais.eis.ids.jsonld.JsonLdContextCache}), mapped to the class they are parsed to
+     * @return map from resource name to target class
+     */
+    public static Map<String, Class<?>> allFixtures() {
+        Map<String, Class<?>> fixtures = localFixtures();
+        fixtures.put("Catalog1.jsonld", Catalog.class);
+        fixtures.put("Connector1.jsonld", BaseConnector.class);
+        fixtures.put("ContractOfferValueForArray.jsonld", ContractOffer.class);
+        fixtures.put("Life-Expectancy.jsonld", DataResource.class);
+        return fixtures;
+    }
+
+    /**
+     * JSON-LD test resources which are not part of {@link #allFixtures()}, as they are not meant to be parsed successfully
+     * @return map from resource name to the reason
+     */
+    public static Map<String, String> unparseableFixtures() {
+        Map<String, String> fixtures = new LinkedHashMap<>();
+        fixtures.put("Connector4.jsonld", "one representation with two media types");
+        fixtures.put("ConnectorWithRubbishResource.jsonld", "the resource in the catalog is not an IDS resource");
+        fixtures.put("FhGDigitalConnector1.jsonld", "requires the Fraunhofer Digital version of the infomodel");
+        fixtures.put("mdpResource.jsonld", "media types and literals of the mdp vocabulary, which are not IDS classes or valid literals");
+        return fixtures;
+    }
+
 }
@@ -0,0 +1,133 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import de.fraunhofer.iais.eis.*;
+import de.fraunhofer.iais.eis.ids.SerializerUtil;
+import de.fraunhofer.iais.eis.util.RdfResource;
+import de.fraunhofer.iais.eis.util.Util;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests of the JVM-wide namespace registry. Every test restores the namespaces it found, so that other tests are not affected
+ */
+public class NamespaceRegistryTest {
+
+	/**
+	 * Adding namespaces while other threads parse and serialize must neither break these threads nor change their results.
+	 * The added namespaces must be visible afterwards
+	 * @throws Exception thrown in case parsing the test resources or one of the threads fails
+	 */
+	@Test
+	public void addKnownNamespaceDuringConcurrentUse() throws Exception {
+		Serializer serializer = new Serializer();
+		List<String> inputs = new ArrayList<>();
+		List<Class<?>> classes = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			inputs.add(SerializerUtil.readResourceToString(fixture.getKey()));
+			classes.add(fixture.getValue());
+			expected.add(serializer.serialize(serializer.deserialize(inputs.get(inputs.size() - 1), fixture.getValue())));
+		}
+
+		NamespaceRegistry original = NamespaceRegistry.current();
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				int index = i % inputs.size();
+				results.add(executor.submit(() -> expected.get(index).equals(serializer.serialize(serializer.deserialize(inputs.get(index), classes.get(index))))));
+				if (i % 50 == 0) {
+					Serializer.addKnownNamespace("nsregistrytest" + i, "https://example.org/nsregistrytest/" + i + "/");
+				}
+			}
+			for (Future<Boolean> result : results) {
+				Assert.assertTrue(result.get());
+			}
+			Assert.assertEquals(original.version + 4, NamespaceRegistry.current().version);
+			Assert.assertEquals("https://example.org/nsregistrytest/150/", JsonLDSerializer.sharedContext().get("nsregistrytest150"));
+		} finally {
+			executor.shutdown();
+			NamespaceRegistry.restore(original);
+		}
+		Assert.assertEquals(original.contextItems(), NamespaceRegistry.current().contextItems());
+		Assert.assertFalse(JsonLDSerializer.sharedContext().containsKey("nsregistrytest150"));
+	}
+
+	/**
+	 * Adding a namespace which is already known with the same URL must not invalidate the caches
+	 */
+	@Test
+	public void addingKnownNamespaceAgainKeepsVersion() {
+		NamespaceRegistry original = NamespaceRegistry.current();
+		try {
+			NamespaceRegistry added = NamespaceRegistry.register("nsregistrytest", "https://example.org/nsregistrytest/");
+			Assert.assertEquals(original.version + 1, added.version);
+			Assert.assertSame(added, NamespaceRegistry.register("nsregistrytest", "https://example.org/nsregistrytest/"));
+			Assert.assertEquals("https://example.org/nsregistrytest/Thing", added.expand("nsregistrytest:Thing"));
+		} finally {
+			NamespaceRegistry.restore(original);
+		}
+		Assert.assertNull(NamespaceRegistry.current().expand("nsregistrytest:Thing"));
+	}
+
+	/**
+	 * An added namespace may share a bucket of the @context HashMap with a built-in prefix. Both context collection modes must still
+	 * write the same @context, although they discover the prefixes in a different order
+	 * @throws IOException thrown in case serialization fails
+	 */
+	@Test
+	public void singlePassMatchesPrePassWithAddedNamespace() throws IOException {
+		//Sorts before "ids", but is discovered after it
+		String prefix = prefixSharingBucketWith("ids");
+		NamespaceRegistry original = NamespaceRegistry.current();
+		try {
+			Serializer.addKnownNamespace(prefix, "https://example.org/" + prefix + "/");
+			ContractOffer contractOffer = new ContractOfferBuilder()
+					._permission_(Util.asList(new PermissionBuilder()
+							._action_(Util.asList(Action.USE))
+							._constraint_(Util.asList(new ConstraintBuilder()
+									._leftOperand_(LeftOperand.ELAPSED_TIME)
+									._operator_(BinaryOperator.SHORTER_EQ)
+									._rightOperand_(new RdfResource("P20M", URI.create(prefix + ":duration")))
+									.build()))
+							.build()))
+					.build();
+			Serializer singlePassSerializer = new Serializer();
+			singlePassSerializer.setContextCollectionMode(ContextCollectionMode.SINGLE_PASS);
+
+			String expected = new Serializer().serialize(contractOffer);
+			Assert.assertTrue(expected.contains("\"" + prefix + "\" : \"https://example.org/" + prefix + "/\""));
+			Assert.assertEquals(expected, singlePassSerializer.serialize(contractOffer));
+		} finally {
+			NamespaceRegistry.restore(original);
+		}
+	}
+
+	/**
+	 * @return a prefix whose hash selects the same HashMap bucket as the given one, for tables of up to 64 buckets
+	 */
+	private static String prefixSharingBucketWith(String builtInPrefix) {
+		for (int i = 0; ; i++) {
+			String prefix = "addedns" + i + "x";
+			if ((spread(prefix.hashCode()) & 63) == (spread(builtInPrefix.hashCode()) & 63)) {
+				return prefix;
+			}
+		}
+	}
+
+	/**
+	 * Same as HashMap.hash
+	 */
+	private static int spread(int hashCode) {
+		return hashCode ^ (hashCode >>> 16);
+	}
+}
@@ -0,0 +1,79 @@
+package de.fraunhofer.iais.eis.ids.jsonld;
+
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import de.fraunhofer.iais.eis.ids.SerializerUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of the serializer cache of the ObjectMapper shared by all Serializers
+ */
+public class SerializerCacheTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(SerializerCacheTest.class);
+
+	/**
+	 * The mapper is configured only once, so repeated calls (and new Serializer instances) must not cause serializer cache misses
+	 * @throws Exception thrown in case parsing the test resources or serialization fails
+	 */
+	@Test
+	public void noSerializerCacheMissesAfterWarmUp() throws Exception {
+		List<Object> fixtures = fixtures();
+		Serializer serializer = new Serializer();
+		for (Object fixture : fixtures) {
+			serializer.serialize(fixture);
+		}
+		int cachedSerializers = cachedSerializersCount();
+		for (int i = 0; i < 1000; i++) {
+			new Serializer().serialize(fixtures.get(i % fixtures.size()));
+		}
+		Assert.assertEquals(cachedSerializers, cachedSerializersCount());
+	}
+
+	/**
+	 * Counts serializer cache misses (i.e. newly cached serializers) over 100k serialize calls after a warm-up round.
+	 * Like the other benchmarks, this is only run with -Dids.benchmark=true
+	 */
+	@Test
+	public void serializerCacheMisses() throws Exception {
+		Assume.assumeTrue("Benchmarks are disabled. Enable with -Dids.benchmark=true", Boolean.getBoolean("ids.benchmark"));
+		List<Object> fixtures = fixtures();
+		Serializer serializer = new Serializer();
+		for (Object fixture : fixtures) {
+			serializer.serialize(fixture);
+		}
+		int afterWarmUp = cachedSerializersCount();
+		long start = System.nanoTime();
+		for (int i = 0; i < 100000; i++) {
+			serializer.serialize(fixtures.get(i % fixtures.size()));
+		}
+		long duration = System.nanoTime() - start;
+		int misses = cachedSerializersCount() - afterWarmUp;
+		logger.info("100000 serialize calls: {} serializer cache misses after warm-up ({} cached serializers), {} ns/op",
+				misses, afterWarmUp, duration / 100000);
+		Assert.assertEquals(0, misses);
+	}
+
+	/**
+	 * Number of serializers cached by the ObjectMapper shared by all Serializers. Every increase is a serializer cache miss
+	 */
+	private static int cachedSerializersCount() {
+		return ((DefaultSerializerProvider) SerializerConfig.mapper().getSerializerProvider()).cachedSerializersCount();
+	}
+
+	private static List<Object> fixtures() throws Exception {
+		Serializer serializer = new Serializer();
+		List<Object> fixtures = new ArrayList<>();
+		for (Map.Entry<String, Class<?>> fixture : SerializerUtil.localFixtures().entrySet()) {
+			fixtures.add(serializer.deserialize(SerializerUtil.readResourceToString(fixture.getKey()), fixture.getValue()));
+		}
+		return fixtures;
+	}
+}
@@ -0,0 +1,23 @@
+package de.fraunhofer.iais.eis.ids.jsonld.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests of the mixin index, which the build generates into the test classes (see pom.xml)
+ */
+public class MixinHelperTest {
+
+	/**
+	 * The index generated by the build must be applicable to the classpath it was generated for, and list the same mixins as a scan
+	 */
+	@Test
+	public void generatedIndexIsApplied() {
+		Assert.assertNotNull(MixinHelper.class.getClassLoader().getResource(MixinHelper.INDEX_RESOURCE));
+		Map<Class<?>, Class<?>> indexed = MixinHelper.readIndex();
+		Assert.assertNotNull(indexed);
+		Assert.assertEquals(MixinHelper.scanClasspath(), indexed);
+	}
+}